@@ -29,7 +29,7 @@ import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
 import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
 import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
 import org.springframework.http.MediaType;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
 import org.springframework.http.converter.FormHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.StringHttpMessageConverter;
@@ -37,6 +37,7 @@ import org.springframework.http.converter.json.MappingJackson2HttpMessageConvert
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.client.RestTemplate;
 
+import com.lampo.device_lab.master.utils.SharedHttpClient;
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClients;
@@ -114,12 +115,7 @@ public class ClientConfiguration {
 		messageConverters.add(new StringHttpMessageConverter());
 		RestTemplate template = new RestTemplate(messageConverters);
 
-		HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory();
-		factory.setConnectionRequestTimeout(60000);
-		factory.setConnectTimeout(60000);
-		factory.setReadTimeout(120000);
-
-		template.setRequestFactory(factory);
+		template.setRequestFactory(new OkHttp3ClientHttpRequestFactory(SharedHttpClient.withTimeouts(60, 120)));
 
 		return template;
 	}
@@ -1,13 +1,11 @@
 package com.lampo.device_lab.master.controller;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.IOException;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -17,13 +15,13 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.lampo.device_lab.master.grid.DeviceMatchRequest;
+import com.lampo.device_lab.master.model.ArtifactType;
 import com.lampo.device_lab.master.model.DeviceInfo;
 import com.lampo.device_lab.master.model.DeviceStatus;
 import com.lampo.device_lab.master.service.AllocationService;
+import com.lampo.device_lab.master.service.ArtifactService;
 import com.lampo.device_lab.master.service.SessionReaper;
 
-import reactor.core.publisher.Mono;
-
 /**
  * MIT License <br/>
  * <br/>
@@ -82,6 +80,9 @@ public class DeviceController {
 	@Autowired
 	private SessionReaper reaper;
 
+	@Autowired
+	private ArtifactService artifactService;
+
 	@PostMapping("/update_status")
 	public boolean updateStatus(@RequestBody DeviceInfo request,
 			@RequestParam(defaultValue = "FREE") DeviceStatus action, HttpServletRequest servletRequest) {
@@ -116,23 +117,15 @@ public class DeviceController {
 	}
 
 	@GetMapping(path = "/logs/{request_id}", produces = "text/plain")
-	public Mono<Resource> getLogs(@PathVariable("request_id") String requestId, HttpServletRequest servletRequest)
-			throws Throwable {
-		return getResource(allocationService.getLogUrl(requestId, servletRequest));
-	}
-
-	private Mono<Resource> getResource(String url) throws MalformedURLException {
-		if (url == null) {
-			return Mono.empty();
-		}
-		URL _url = new URL(url);
-		return Mono.fromSupplier(() -> new UrlResource(_url));
+	public void getLogs(@PathVariable("request_id") String requestId, HttpServletRequest servletRequest,
+			HttpServletResponse servletResponse) throws IOException {
+		artifactService.stream(requestId, ArtifactType.LOG, servletRequest, servletResponse);
 	}
 
 	@GetMapping(path = "/videos/{request_id}", produces = "video/mp4")
-	public Mono<Resource> getVideos(@PathVariable("request_id") String requestId, HttpServletRequest servletRequest)
-			throws Throwable {
-		return getResource(allocationService.getVideoUrl(requestId, servletRequest));
+	public void getVideos(@PathVariable("request_id") String requestId, HttpServletRequest servletRequest,
+			HttpServletResponse servletResponse) throws IOException {
+		artifactService.stream(requestId, ArtifactType.VIDEO, servletRequest, servletResponse);
 	}
 
 }
@@ -1,8 +1,5 @@
 package com.lampo.device_lab.master.controller;
 
-import static com.lampo.device_lab.master.utils.CommonUtilities.getClippedName;
-import static java.util.stream.Collectors.groupingBy;
-
 import java.io.File;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -10,9 +7,8 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
@@ -20,7 +16,6 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -28,23 +23,24 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.lampo.device_lab.master.config.MVCConfiguration;
-import com.lampo.device_lab.master.model.Device;
-import com.lampo.device_lab.master.model.DeviceStatusModel;
-import com.lampo.device_lab.master.model.HeldBy;
+import com.lampo.device_lab.master.grid.CustomGridRegistry;
+import com.lampo.device_lab.master.model.DashboardView;
+import com.lampo.device_lab.master.model.GridNode;
 import com.lampo.device_lab.master.model.ModelDevice;
-import com.lampo.device_lab.master.model.Photo;
-import com.lampo.device_lab.master.repos.IDeviceRepository;
-import com.lampo.device_lab.master.repos.IDeviceStatusRepository;
-import com.lampo.device_lab.master.repos.ITeamRepository;
-import com.lampo.device_lab.master.service.PhoneImageService;
+import com.lampo.device_lab.master.service.ArtifactService;
+import com.lampo.device_lab.master.service.DashboardFeed;
+import com.lampo.device_lab.master.service.DashboardService;
 import com.lampo.device_lab.master.service.SessionReaper;
+import com.lampo.device_lab.master.service.SlaveLeaseService;
 import com.lampo.device_lab.master.utils.CommonUtilities;
 import com.lampo.device_lab.master.utils.RequestUtils;
+import com.lampo.device_lab.master.utils.SharedHttpClient;
 
-import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -101,22 +97,20 @@ public class HomeController {
 
 	private static final String LOCAL_NETWORK_IP = CommonUtilities.getLocalNetworkIP();
 
-	@Autowired
-	private PhoneImageService phoneImageService;
-
 	@Autowired
 	private SessionReaper reaperController;
 
-	private static final int STF_PORT = 7100;
+	@Autowired
+	private DashboardService dashboardService;
 
 	@Autowired
-	private IDeviceRepository devicesRepo;
+	private DashboardFeed dashboardFeed;
 
 	@Autowired
-	private ITeamRepository teamRepository;
+	private SlaveLeaseService leaseService;
 
 	@Autowired
-	private IDeviceStatusRepository deviceStatusRepo;
+	private ArtifactService artifactService;
 
 	@Value("${server.port}")
 	private int serverPort;
@@ -134,102 +128,65 @@ public class HomeController {
 		return "app is working!";
 	}
 
-	@GetMapping({ "/", "home", "index" })
-	public String home(HttpServletRequest servletRequest, Model modelAndView) {
-		modelAndView.addAttribute("devices", getDevices(servletRequest));
-		modelAndView.addAttribute("directories",
-				Arrays.stream(directories.split(",")).map(String::trim).collect(Collectors.toList()));
-		return "devices";
+	@GetMapping({ "/status/reconciler" })
+	public @ResponseBody Map<String, Object> reconcilerStatus() {
+		return reaperController.getStats();
 	}
 
-	private final Comparator<ModelDevice> comparator = (e1, e2) -> Integer.valueOf(getMajorVersion(e1.getSdkVersion()))
-			.compareTo(Integer.valueOf(getMajorVersion(e2.getSdkVersion())));
-
-	@GetMapping({ "/devices" })
-	@ResponseBody
-	public List<ModelDevice> getDevices(HttpServletRequest servletRequest) {
-
-		String clientIp = RequestUtils.getClientIp(servletRequest);
-
-		return this.devicesRepo.findAll().stream().filter(device -> {
-			Optional<DeviceStatusModel> optional = deviceStatusRepo.findById(device.getId());
-			return !optional.isPresent() || !optional.get().isBlacklisted();
-		}).map(device -> getDeviceProperties(device, clientIp))
-				.collect(groupingBy(ModelDevice::isAndroid)).values().stream()
-				.flatMap(device -> device.stream().sorted(comparator))
-				.sorted((e1, e2) -> e1.getOwnedBy().compareTo(e2.getOwnedBy()))
-				.collect(Collectors.toList());
+	@GetMapping({ "/status/slaves" })
+	public @ResponseBody Map<String, Object> slaveStatus() {
+		return leaseService.getStats();
 	}
 
-	@GetMapping({ "/refresh" })
-	public String refresh(HttpServletRequest servletRequest, Model modelAndView) {
-		modelAndView.addAttribute("devices", getDevices(servletRequest));
-		return "fragments/card :: devices";
+	@GetMapping({ "/status/http" })
+	public @ResponseBody Map<String, Object> httpStatus() {
+		return SharedHttpClient.getStats();
 	}
 
-	private String getMajorVersion(String version) {
-		return (version.contains(".") ? version.substring(0, version.indexOf('.')) : version).trim();
+	@GetMapping({ "/status/artifacts" })
+	public @ResponseBody Map<String, Object> artifactStatus() {
+		return artifactService.getStats();
 	}
 
-	private ModelDevice getDeviceProperties(@NonNull Device device, String clientIp) {
-
-		ModelDevice mDevice = new ModelDevice();
-
-		try {
-			mDevice.setIp(device.getSlaveIp());
-			mDevice.setConnected(device.isConnected());
-			mDevice.setDeviceType(getDeviceType(device));
-			mDevice.setSdkVersion(device.getDeviceInformation().getSdkVersion());
-			mDevice.setManufacturer(capitalize(device.getDeviceInformation().getManufacturer()));
-			mDevice.setMarketName(getDisplayName(device));
-			mDevice.setImageUrl(getPhoneImage(device));
-			mDevice.setBrowserVersion(device.getDeviceInformation().getBrowserVersion());
-			mDevice.setFree(device.isFree());
-			mDevice.setAndroid(device.getDeviceInformation().isAndroid());
-			mDevice.setAllocatedTo(device.getLastAllocatedTo());
-			mDevice.setUrl(getUrl(device, clientIp));
-			mDevice.setOwnedBy(teamRepository.getTeam(device.getId()).toUpperCase());
-			HeldBy sessionHeldBy = device.getStfSessionHeldBy();
-			if (sessionHeldBy != null) {
-				mDevice.setStfSessionHeldBy(sessionHeldBy);
-			}
-			mDevice.setModel(getClippedName(
-					(device.getDeviceInformation().getModel() == null) ? device.getDeviceInformation().getMarketName()
-							: device.getDeviceInformation().getModel(),
-					15));
-		} catch (Exception e) {
-			log.error(String.format("'%s' occurred while parsing device properties(%s, %s) with message: '%s'",
-					e.getClass(), device,
-					clientIp, e.getMessage()), e);
-		}
-		return mDevice;
+	@GetMapping({ "/status/grid" })
+	public @ResponseBody List<GridNode> gridStatus() {
+		CustomGridRegistry registry = CustomGridRegistry.getInstance();
+		return registry == null ? Collections.emptyList() : registry.getNodes();
 	}
 
-	private String capitalize(String str) {
-		return str == null ? null : str.substring(0, 1).toUpperCase() + str.substring(1);
+	@GetMapping({ "/", "home", "index" })
+	public String home(HttpServletRequest servletRequest, WebRequest webRequest, Model modelAndView) {
+		DashboardView view = dashboardService.getView(RequestUtils.getClientIp(servletRequest));
+		if (webRequest.checkNotModified(view.getEtag())) {
+			return null;
+		}
+		modelAndView.addAttribute("devices", view.getDevices());
+		modelAndView.addAttribute("directories",
+				Arrays.stream(directories.split(",")).map(String::trim).collect(Collectors.toList()));
+		return "devices";
 	}
 
-	private String getDeviceType(@NonNull Device device) {
-		return device.getDeviceInformation().isRealDevice() ? "Real Device"
-				: (device.getDeviceInformation().isAndroid() ? "Emulator" : "Simulator");
+	@GetMapping({ "/devices" })
+	@ResponseBody
+	public List<ModelDevice> getDevices(HttpServletRequest servletRequest, WebRequest webRequest) {
+		DashboardView view = dashboardService.getView(RequestUtils.getClientIp(servletRequest));
+		return webRequest.checkNotModified(view.getEtag()) ? null : view.getDevices();
 	}
 
-	@Cacheable
-	private String getPhoneImage(@NonNull Device device) {
-		String name = (device.getDeviceInformation().isAndroid() ? device.getDeviceInformation().getMarketName()
-				: device.getDeviceInformation().getModel()).replaceAll("[\\(\\)]", " ");
-		return phoneImageService.getPhotoByName(name).stream().map(Photo::getName).findFirst()
-				.orElseGet(() -> "default");
+	@GetMapping({ "/dashboard/events" })
+	@ResponseBody
+	public SseEmitter events(HttpServletRequest servletRequest) {
+		return dashboardFeed.subscribe(RequestUtils.getClientIp(servletRequest));
 	}
 
-	private String getUrl(@NonNull Device device, String clientIp) {
-
-		if (!device.getDeviceInformation().isAndroid()) {
-			return "#";
+	@GetMapping({ "/refresh" })
+	public String refresh(HttpServletRequest servletRequest, WebRequest webRequest, Model modelAndView) {
+		DashboardView view = dashboardService.getView(RequestUtils.getClientIp(servletRequest));
+		if (webRequest.checkNotModified(view.getEtag())) {
+			return null;
 		}
-		return String.format("http://%s:%s/#!/control/%s",
-				clientIp == null || clientIp.equals(device.getSlaveIp()) ? "localhost" : device.getSlaveIp(), STF_PORT,
-				device.getDeviceInformation().getDeviceId());
+		modelAndView.addAttribute("devices", view.getDevices());
+		return "fragments/card :: devices";
 	}
 
 	@PostMapping("/upload")
@@ -257,23 +214,6 @@ public class HomeController {
 		return null;
 	}
 
-	private String getDisplayName(@NonNull Device device) {
-
-		String name = null;
-		try {
-			if (device.getDeviceInformation().getMarketName() != null
-					&& device.getDeviceInformation().getManufacturer() != null && device.getDeviceInformation()
-							.getMarketName().equals(device.getDeviceInformation().getManufacturer())) {
-				name = device.getDeviceInformation().getModel();
-			} else {
-				name = device.getDeviceInformation().getMarketName();
-			}
-		} catch (Exception e) {
-			name = device.getDeviceInformation().getModel();
-		}
-		return capitalize(name);
-	}
-
 	@GetMapping("/files")
 	public @ResponseBody List<String> getFiles(@RequestParam String prefix) {
 		File file = new File(MVCConfiguration.RESOURCE_CREATION_DIR, prefix);
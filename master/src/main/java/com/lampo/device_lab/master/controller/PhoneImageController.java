@@ -2,17 +2,23 @@ package com.lampo.device_lab.master.controller;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.bson.BsonBinarySubType;
 import org.bson.types.Binary;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.lampo.device_lab.master.model.PhoneImage;
 import com.lampo.device_lab.master.model.Photo;
 import com.lampo.device_lab.master.service.PhoneImageService;
 
@@ -92,4 +98,19 @@ public class PhoneImageController {
 	public Collection<Photo> getPhotoByName(@RequestParam String name) {
 		return service.getPhotoByName(name);
 	}
+
+	/**
+	 * serves the bytes of a photo, or a png thumbnail of the given width, cached
+	 * by browsers for a day and revalidated with its etag afterwards
+	 */
+	@GetMapping("/image/{name}")
+	public ResponseEntity<byte[]> getImage(@PathVariable String name, @RequestParam(required = false) Integer width) {
+		PhoneImage image = service.getImage(name, width);
+		if (image == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok().cacheControl(CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic())
+				.eTag(image.getEtag()).contentType(MediaType.parseMediaType(image.getContentType()))
+				.body(image.getBytes());
+	}
 }
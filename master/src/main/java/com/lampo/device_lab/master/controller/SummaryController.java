@@ -2,9 +2,7 @@ package com.lampo.device_lab.master.controller;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.function.BiFunction;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -14,8 +12,9 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.lampo.device_lab.master.model.Summary;
-import com.lampo.device_lab.master.model.SummaryInfo;
 import com.lampo.device_lab.master.repos.ISummaryRepository;
+import com.lampo.device_lab.master.service.SummaryService;
+import com.lampo.device_lab.master.service.UtilizationService;
 
 /**
  * MIT License <br/>
@@ -69,11 +68,17 @@ import com.lampo.device_lab.master.repos.ISummaryRepository;
 @RequestMapping("/summary")
 public class SummaryController {
 
-	private static final DateTimeFormatter PATTERN = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+	private static final DateTimeFormatter PATTERN = SummaryService.PATTERN;
 
 	@Autowired
 	private ISummaryRepository repo;
 
+	@Autowired
+	private SummaryService summaryService;
+
+	@Autowired
+	private UtilizationService utilizationService;
+
 	@GetMapping("/find")
 	public Summary findAll(@RequestParam String date) {
 		return repo.findByDate(date);
@@ -81,38 +86,44 @@ public class SummaryController {
 
 	@GetMapping("/find_between")
 	public ResponseEntity<?> findAllBetween(@RequestParam String start, @RequestParam String end) {
-		LocalDate startDate = LocalDate.parse(start, PATTERN);
-		LocalDate endDate = LocalDate.parse(end, PATTERN);
-		if (startDate.isAfter(endDate)) {
-			return ResponseEntity.badRequest()
-					.body(String.format("start date '%s' is after end date '%s'", start, end));
-		}
-		return ResponseEntity.ok(repo.findBetweenDates(startDate, endDate));
+		return inRange(start, end, summaryService::findBetween);
 	}
 
 	@GetMapping("/total_between")
-	public ResponseEntity<?> totalBetween(@RequestParam String start, @RequestParam String end) {
+	public ResponseEntity<?> totalBetween(@RequestParam String start, @RequestParam String end,
+			@RequestParam(required = false) String team) {
+		return inRange(start, end, (s, e) -> summaryService.totalBetween(s, e, team));
+	}
 
+	@GetMapping("/utilization")
+	public ResponseEntity<?> utilization(@RequestParam String start, @RequestParam String end,
+			@RequestParam(name = "slave_ip", required = false) String slaveIp) {
+		return inRange(start, end, (s, e) -> utilizationService.getUtilization(s, e, slaveIp));
+	}
+
+	@GetMapping("/utilization/device")
+	public ResponseEntity<?> deviceUtilization(@RequestParam("device_id") String deviceId,
+			@RequestParam(name = "slave_ip", required = false) String slaveIp, @RequestParam String start,
+			@RequestParam String end) {
+		return inRange(start, end, (s, e) -> utilizationService.getTimeline(deviceId, slaveIp, s, e));
+	}
+
+	@GetMapping("/queue_wait")
+	public ResponseEntity<?> queueWait(@RequestParam String start, @RequestParam String end) {
+		return inRange(start, end, utilizationService::getQueueWait);
+	}
+
+	/*
+	 * parses the inclusive range and answers with the query result, or with a bad
+	 * request when the range is reversed
+	 */
+	private ResponseEntity<?> inRange(String start, String end, BiFunction<LocalDate, LocalDate, ?> query) {
 		LocalDate startDate = LocalDate.parse(start, PATTERN);
 		LocalDate endDate = LocalDate.parse(end, PATTERN);
-
 		if (startDate.isAfter(endDate)) {
 			return ResponseEntity.badRequest()
 					.body(String.format("start date '%s' is after end date '%s'", start, end));
 		}
-		List<Summary> list = repo.findBetweenDates(startDate, endDate);
-
-		Map<String, SummaryInfo> map = new HashMap<>();
-		for (Summary summary : list) {
-			Map<String, SummaryInfo> info = summary.getInfo();
-			info.forEach((k, v) -> {
-				SummaryInfo val = map.getOrDefault(k, new SummaryInfo());
-				val.setNumberOfSessions(val.getNumberOfSessions() + v.getNumberOfSessions());
-				val.setTotalDuration(val.getTotalDuration() + v.getTotalDuration());
-				map.put(k, val);
-			});
-		}
-
-		return ResponseEntity.ok(map);
+		return ResponseEntity.ok(query.apply(startDate, endDate));
 	}
 }
@@ -14,6 +14,7 @@ import org.springframework.web.bind.annotation.RestController;
 import com.google.common.collect.ImmutableMap;
 import com.lampo.device_lab.master.model.TeamMapping;
 import com.lampo.device_lab.master.repos.ITeamRepository;
+import com.lampo.device_lab.master.service.TeamOwnershipService;
 
 /**
  * MIT License <br/>
@@ -71,6 +72,9 @@ public class TeamController {
 	@Autowired
 	private ITeamRepository repo;
 
+	@Autowired
+	private TeamOwnershipService ownershipService;
+
 	@PostMapping
 	public ResponseEntity<?> add(@RequestBody TeamMapping mapping) {
 
@@ -87,9 +91,9 @@ public class TeamController {
 			teamMapping.setDevices(mapping.getDevices());
 		}
 		if (mapping.getJobs() != null && !mapping.getJobs().isEmpty()) {
-			teamMapping.setJobs(teamMapping.getJobs());
+			teamMapping.setJobs(mapping.getJobs());
 		}
-		return ResponseEntity.ok(repo.save(teamMapping));
+		return ResponseEntity.ok(ownershipService.save(teamMapping));
 	}
 
 	@DeleteMapping("/{name}")
@@ -102,7 +106,7 @@ public class TeamController {
 			return ResponseEntity.badRequest()
 					.body(ImmutableMap.of("error", String.format("team '%s' not found", name)));
 		} else {
-			repo.delete(teamMapping);
+			ownershipService.delete(teamMapping);
 			return ResponseEntity.ok().build();
 		}
 	}
@@ -69,6 +69,8 @@ public enum CustomCapability {
 
 	SESSION_MAX_TIMEOUT("session.wait_timeout"),
 
+	SESSION_PRIORITY("session.priority"),
+
 	RECORD_VIDEO("session.record_video");
 
 	private String name;
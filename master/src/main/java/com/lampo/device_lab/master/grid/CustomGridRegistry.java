@@ -3,6 +3,7 @@ package com.lampo.device_lab.master.grid;
 import static com.lampo.device_lab.master.grid.CustomCapability.JOB_LINK;
 import static com.lampo.device_lab.master.grid.CustomCapability.REQUEST_ID;
 import static com.lampo.device_lab.master.grid.CustomCapability.SESSION_MAX_TIMEOUT;
+import static com.lampo.device_lab.master.grid.CustomCapability.SESSION_PRIORITY;
 import static com.lampo.device_lab.master.grid.CustomCapability.TEAM_NAME;
 import static com.lampo.device_lab.master.grid.CustomCapability.search;
 import static com.lampo.device_lab.master.grid.CustomGridNodeCapabilityMatcher.extractCapability;
@@ -12,27 +13,39 @@ import static com.lampo.device_lab.master.utils.CommonUtilities.pojoToJson;
 import static com.lampo.device_lab.master.utils.CommonUtilities.sleep;
 import static com.lampo.device_lab.master.utils.CommonUtilities.split;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import org.apache.http.HttpStatus;
 import org.openqa.grid.internal.DefaultGridRegistry;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.internal.TestSlot;
+import org.openqa.grid.web.Hub;
 import org.openqa.grid.web.servlet.handler.RequestHandler;
 import org.openqa.grid.web.servlet.handler.SeleniumBasedRequest;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.lampo.device_lab.master.exception.DeviceManagerException;
 import com.lampo.device_lab.master.model.DeviceInfo;
+import com.lampo.device_lab.master.model.GridNode;
 import com.lampo.device_lab.master.model.Header;
 import com.lampo.device_lab.master.model.NodeCapability;
+import com.lampo.device_lab.master.service.SessionRequestQueue;
+import com.lampo.device_lab.master.utils.SharedHttpClient;
 
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -88,17 +101,68 @@ import okhttp3.Response;
 @Slf4j
 public class CustomGridRegistry extends DefaultGridRegistry {
 
-	private static final TypeReference<Map<String, Object>> CLAZZ = new TypeReference<Map<String, Object>>() {
-	};
+	private static volatile CustomGridRegistry instance;
+
 	private static final int SERVER_PORT = Integer.parseInt(CustomRemoteProxy.getProperty("server.port"));
 	private static final String BASE_URL = String.format("http://127.0.0.1:%s", SERVER_PORT);
 	private static final long SESSION_MAX_TIMEOUT_IN_SEC = Integer.getInteger("custom.session.wait_timeout", 300);
 	private static final int SESSION_POLLING_IN_SEC = Integer.getInteger("custom.session.polling_timeout", 5);
 	private static final String CHECK_CAPABILITY_URL = BASE_URL + "/device/check_capability";
-	private static final String GRID_STATUS_URL = "http://127.0.0.1:4444/grid/api/hub";
 
 	private static final String DEFAULT_UNINSTALL_PACKAGES = "com.appium.settings,io.appium.uiautomator2.server,io.appium.uiautomator2.server.test";
 
+	/*
+	 * devices claimed for requests which are not bound to a session yet, keyed by
+	 * identity as handlers compare equal by their session
+	 */
+	private final Map<RequestHandler, DeviceInfo> claims = new IdentityHashMap<>();
+
+	public CustomGridRegistry() {
+		super();
+		instance = this;
+	}
+
+	public CustomGridRegistry(Hub hub) {
+		super(hub);
+		instance = this;
+	}
+
+	/**
+	 * the registry is created by selenium in the same jvm, spring beans read the
+	 * grid state through this accessor
+	 *
+	 * @return {@link CustomGridRegistry} of the running hub or <code>null</code>
+	 *         before the hub is started
+	 */
+	public static CustomGridRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return one entry per registered device read straight from the proxies,
+	 *         busy when any of its slots holds a session
+	 */
+	public List<GridNode> getNodes() {
+		List<GridNode> nodes = new ArrayList<>();
+		for (RemoteProxy proxy : getAllProxies()) {
+			Object udid = proxy.getConfig().capabilities.isEmpty() ? null
+					: proxy.getConfig().capabilities.get(0).getCapability("udid");
+			TestSession session = null;
+			for (TestSlot slot : proxy.getTestSlots()) {
+				session = slot.getSession();
+				if (session != null) {
+					break;
+				}
+			}
+			String sessionId = session == null || session.getExternalKey() == null ? null
+					: session.getExternalKey().getKey();
+			String requestId = session == null ? null : search(session.getRequestedCapabilities(), REQUEST_ID);
+			nodes.add(new GridNode(proxy.getRemoteHost().getHost(), udid == null ? null : udid.toString(),
+					session != null, sessionId, requestId));
+		}
+		return nodes;
+	}
+
 	@Override
 	@SneakyThrows
 	public void addNewSessionRequest(RequestHandler handler) {
@@ -130,10 +194,56 @@ public class CustomGridRegistry extends DefaultGridRegistry {
 		SeleniumBasedRequest request = handler.getRequest();
 		request.setBody(pojoToJson(caps));
 
-		super.addNewSessionRequest(handler);
+		/* handlers which got their session are done with the claim, the proxy frees it after the session */
+		synchronized (claims) {
+			claims.keySet().removeIf(h -> h.getSession() != null);
+			claims.put(handler, node);
+		}
+		try {
+			super.addNewSessionRequest(handler);
+		} catch (RuntimeException ex) {
+			synchronized (claims) {
+				claims.remove(handler);
+			}
+			release(node, getRequestId(caps));
+			throw ex;
+		}
 
 	}
 
+	/**
+	 * selenium removes the request when it is not bound to a slot in time or the
+	 * session could not be created, the device claimed for it is freed unless a
+	 * session was bound which frees it on termination
+	 */
+	@Override
+	public boolean removeNewSessionRequest(RequestHandler handler) {
+		boolean removed = super.removeNewSessionRequest(handler);
+		DeviceInfo node;
+		synchronized (claims) {
+			node = claims.remove(handler);
+		}
+		if (node != null && handler.getSession() == null) {
+			release(node, getRequestId(handler.getRequest().getDesiredCapabilities()));
+		}
+		return removed;
+	}
+
+	private void release(DeviceInfo node, String requestId) {
+		SessionRequestQueue queue = SessionRequestQueue.getInstance();
+		if (queue == null) {
+			log.warn("request '{}' ::: unable to release claim on device '{}', the hub is not ready", requestId,
+					node.getDeviceId());
+			return;
+		}
+		try {
+			queue.release(node, requestId);
+		} catch (Exception ex) {
+			log.error(String.format("request '%s' ::: '%s' occurred while releasing claim on device '%s'",
+					requestId, ex.getClass().getName(), node.getDeviceId()), ex);
+		}
+	}
+
 	private String getUninstallPackages(Map<String, Object> requiredCapabilities) {
 		String uninstallOtherPackages = search(requiredCapabilities, "uninstallOtherPackages");
 		return split(DEFAULT_UNINSTALL_PACKAGES
@@ -157,6 +267,11 @@ public class CustomGridRegistry extends DefaultGridRegistry {
 		log.info("request '{}' ::: waiting to match node with capability '{}' with maximum timeout '{} seconds'",
 				requestId, request, timeout);
 
+		SessionRequestQueue queue = SessionRequestQueue.getInstance();
+		if (queue != null) {
+			return awaitMatch(queue, request, requestId, getPriority(capabilities), timeout);
+		}
+
 		long end = System.currentTimeMillis() + timeout * 1000;
 		while (true) {
 			if (System.currentTimeMillis() > end) {
@@ -174,6 +289,47 @@ public class CustomGridRegistry extends DefaultGridRegistry {
 		}
 	}
 
+	@SneakyThrows(InterruptedException.class)
+	private DeviceInfo awaitMatch(SessionRequestQueue queue, DeviceMatchRequest request, String requestId,
+			int priority, long timeout) {
+
+		CompletableFuture<DeviceInfo> future = queue.submit(request, requestId, priority, timeout);
+		DeviceInfo match = null;
+		try {
+			/* the queue expires the request itself, the extra second only guards a stuck dispatcher */
+			match = future.get(timeout + 1, TimeUnit.SECONDS);
+			return match;
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof DeviceManagerException) {
+				throw (DeviceManagerException) ex.getCause();
+			}
+			throw new DeviceManagerException(ex.getCause().getMessage());
+		} catch (TimeoutException ex) {
+			String msg = String.format("request '%s' ::: unable to find node with capability '%s' within '%s seconds'",
+					requestId, request, timeout);
+			log.error(msg);
+			throw new DeviceManagerException(msg);
+		} finally {
+			/* the dispatcher may complete the future between the timeout and the cancel */
+			if (match == null && !future.cancel(false) && !future.isCompletedExceptionally()) {
+				DeviceInfo late = future.getNow(null);
+				if (late != null) {
+					queue.release(late, requestId);
+				}
+			}
+		}
+	}
+
+	private int getPriority(Map<String, Object> capabilities) {
+		Object value = search(capabilities, SESSION_PRIORITY, 0);
+		try {
+			return Integer.parseInt(value.toString());
+		} catch (NumberFormatException ex) {
+			log.warn("ignoring invalid '{}' value '{}'", SESSION_PRIORITY.getName(), value);
+			return 0;
+		}
+	}
+
 	private DeviceMatchRequest getDeviceAllocationRequest(Map<String, Object> capabilities) {
 
 		String jobName = search(capabilities, JOB_LINK);
@@ -189,20 +345,14 @@ public class CustomGridRegistry extends DefaultGridRegistry {
 	}
 
 	private boolean isFreeSlotAvailable() {
-		Request req = new Request.Builder().url(GRID_STATUS_URL).get().build();
-		try (Response response = new OkHttpClient().newCall(req).execute()) {
-			if (response.code() != HttpStatus.SC_OK) {
-				return false;
+		for (RemoteProxy proxy : getAllProxies()) {
+			for (TestSlot slot : proxy.getTestSlots()) {
+				if (slot.getSession() == null) {
+					return true;
+				}
 			}
-			String reponseBody = response.body().string();
-			Map<String, Object> map = jsonToPojo(reponseBody, CLAZZ);
-			@SuppressWarnings("unchecked")
-			Map<String, Integer> slotCounts = (Map<String, Integer>) map.get("slotCounts");
-			return slotCounts.getOrDefault("free", 0) > 0;
-		} catch (Exception ex) {
-			log.error(String.format("'%s' occurred while calling isFreeSlotAvailable()", ex.getClass().getName()), ex);
-			return false;
 		}
+		return false;
 	}
 
 	private String getRequestId(Map<String, Object> capabilities) {
@@ -220,7 +370,7 @@ public class CustomGridRegistry extends DefaultGridRegistry {
 				.header(Header.REQUEST_ID.toString(), requestId)
 				.post(body).build();
 
-		try (Response response = new OkHttpClient().newCall(req).execute()) {
+		try (Response response = SharedHttpClient.get().newCall(req).execute()) {
 			String responseBody = response.body().string();
 			return response.code() == HttpStatus.SC_OK ? jsonToPojo(responseBody, DeviceInfo.class) : null;
 		} catch (Exception ex) {
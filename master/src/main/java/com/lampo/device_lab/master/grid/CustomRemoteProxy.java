@@ -13,9 +13,11 @@ import java.io.InputStream;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 
 import org.openqa.grid.common.RegistrationRequest;
@@ -24,10 +26,13 @@ import org.openqa.grid.internal.GridRegistry;
 import org.openqa.grid.internal.TestSession;
 import org.openqa.grid.selenium.proxy.DefaultRemoteProxy;
 
+import com.lampo.device_lab.master.model.ArtifactType;
 import com.lampo.device_lab.master.model.ClearDataRequest;
 import com.lampo.device_lab.master.model.DeviceInfo;
 import com.lampo.device_lab.master.model.Header;
 import com.lampo.device_lab.master.model.UninstallRequest;
+import com.lampo.device_lab.master.service.ArtifactService;
+import com.lampo.device_lab.master.utils.SharedHttpClient;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -36,7 +41,6 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Headers;
 import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -112,6 +116,7 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 	private static final String SLAVE_PORT = getProperty("slave.port");
 
 	private static final String BASE_URL = String.format("http://0.0.0.0:%s", SERVER_PORT);
+	private static final long LOG_TIMEOUT_IN_SEC = 120;
 
 	public CustomRemoteProxy(RegistrationRequest request, GridRegistry registry) {
 		super(request, registry);
@@ -173,7 +178,7 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 			String url = String.format("http://%s:%s/device/clear_user_data", host, SLAVE_PORT);
 			Headers headers = Headers.of(Header.AUTH.toString(), AUTH_TOKEN);
 			Request request = new Request.Builder().url(url).post(body).headers(headers).build();
-			try (Response response = new OkHttpClient().newCall(request).execute()) {
+			try (Response response = SharedHttpClient.get().newCall(request).execute()) {
 				log.info("{} :::: clearing user data of app package '{}' from device '{}' present on '{}'", requestId,
 						packageName, udid, host);
 			}
@@ -197,7 +202,7 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 			String url = String.format("http://%s:%s/device/uninstall_apps", host, SLAVE_PORT);
 			Headers headers = Headers.of(Header.AUTH.toString(), AUTH_TOKEN);
 			Request request = new Request.Builder().url(url).post(body).headers(headers).build();
-			try (Response response = new OkHttpClient().newCall(request).execute()) {
+			try (Response response = SharedHttpClient.get().newCall(request).execute()) {
 				log.info("{} :::: uninstall apps '{}' from device '{}' present on '{}'", requestId, packages, udid,
 						host);
 			}
@@ -231,15 +236,24 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 
 		String deviceId = getDeviceId();
 
-		generateLog(requestId, deviceId, session.getExternalKey());
+		Set<ArtifactType> artifacts = EnumSet.noneOf(ArtifactType.class);
+		if (generateLog(requestId, deviceId, session.getExternalKey())) {
+			artifacts.add(ArtifactType.LOG);
+		}
 		Object videoRecording = CustomCapability.search(session.getRequestedCapabilities(),
 				CustomCapability.RECORD_VIDEO);
-		if (videoRecording != null && "true".equalsIgnoreCase(videoRecording.toString())) {
-			stopVideoRecording(requestId, deviceId);
+		if (videoRecording != null && "true".equalsIgnoreCase(videoRecording.toString())
+				&& stopVideoRecording(requestId, deviceId)) {
+			artifacts.add(ArtifactType.VIDEO);
 		}
 		DeviceInfo info = getDeviceInfo();
 		info.setRequestId(requestId);
 
+		ArtifactService artifactService = ArtifactService.getInstance();
+		if (artifactService != null) {
+			artifactService.record(requestId, info.getSlaveIp(), artifacts);
+		}
+
 		log.info("request '{}' ::: unallocating device '{}' successful ? {}", requestId, info,
 				post(info, getRequestInfo(session), false));
 
@@ -279,7 +293,7 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 		return info;
 	}
 
-	private void stopVideoRecording(String requestId, String deviceId) {
+	private boolean stopVideoRecording(String requestId, String deviceId) {
 
 		Headers headers = Headers.of(Header.AUTH.toString(), AUTH_TOKEN);
 
@@ -288,17 +302,18 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 				SLAVE_PORT, deviceId, requestId);
 		RequestBody body = RequestBody.create(MediaType.parse("application/json"), "");
 		Request request = new Request.Builder().url(url).post(body).headers(headers).build();
-		try (Response response = new OkHttpClient().newCall(request).execute()) {
+		try (Response response = SharedHttpClient.get().newCall(request).execute()) {
 			if (response.code() == 200) {
 				String videoUrl = getVideoUrl(requestId);
 				log.error("request '{}' ::: video recording for appium session => {}", requestId, videoUrl);
 
-				return;
+				return true;
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		log.error("request '{}' ::: stopping video recording for appium session failed", requestId);
+		return false;
 	}
 
 	private void startVideoRecording(String requestId, String deviceId) {
@@ -311,7 +326,7 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 
 		RequestBody body = RequestBody.create(MediaType.parse("application/json"), "");
 		Request request = new Request.Builder().url(url).post(body).headers(headers).build();
-		try (Response response = new OkHttpClient().newCall(request).execute()) {
+		try (Response response = SharedHttpClient.get().newCall(request).execute()) {
 			if (response.code() == 200) {
 				log.error("request '{}' ::: video recording for appium session started", requestId);
 				return;
@@ -330,7 +345,7 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 		String url = String.format("%s:%s/device/logs?sessionId=%s&deviceId=%s&requestId=%s", host, SLAVE_PORT,
 				sessionId, deviceId, requestId);
 		Request request = new Request.Builder().url(url).get().headers(headers).build();
-		try (Response response = new OkHttpClient().newCall(request).execute()) {
+		try (Response response = SharedHttpClient.withTimeout(LOG_TIMEOUT_IN_SEC).newCall(request).execute()) {
 			if (response.code() == 200) {
 				String logUrl = getLogUrl(requestId);
 				log.info("request '{}' ::: logs generated for appium session '{}' at => {}", requestId,
@@ -357,7 +372,7 @@ public class CustomRemoteProxy extends DefaultRemoteProxy {
 
 			String url = String.format("%s/device/update_status?action=%s", BASE_URL, action);
 			Request request = new Request.Builder().url(url).post(body).headers(headers).build();
-			try (Response response = new OkHttpClient().newCall(request).execute()) {
+			try (Response response = SharedHttpClient.get().newCall(request).execute()) {
 				return response.code() == 200;
 			}
 
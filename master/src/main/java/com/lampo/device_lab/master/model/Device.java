@@ -102,6 +102,30 @@ public class Device {
 	@JsonProperty("stf_session_held_by")
 	private HeldBy stfSessionHeldBy;
 
+	/**
+	 * changes are applied to a copy and indexed once written, so readers never see
+	 * a half updated device. nested values are shared and replaced, never changed
+	 *
+	 * @return shallow copy of the device
+	 */
+	public Device copy() {
+		Device copy = new Device();
+		copy._id = _id;
+		copy.id = id;
+		copy.slaveIp = slaveIp;
+		copy.deviceInformation = deviceInformation;
+		copy.isFree = isFree;
+		copy.isConnected = isConnected;
+		copy.heldBy = heldBy;
+		copy.lastAllocationStart = lastAllocationStart;
+		copy.lastAllocationEnd = lastAllocationEnd;
+		copy.lastSessionDuration = lastSessionDuration;
+		copy.lastModifiedTime = lastModifiedTime;
+		copy.lastAllocatedTo = lastAllocatedTo;
+		copy.stfSessionHeldBy = stfSessionHeldBy;
+		return copy;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -64,6 +64,20 @@ public class DeviceUpdateRequest implements ToJson {
 	@JsonProperty("ip")
 	private String ip;
 
+	/* identifies one run of the slave, sequence numbers restart with every epoch */
+	@JsonProperty("epoch")
+	private String epoch;
+
+	/* null for slaves which predate the delta protocol, they always send snapshots */
+	@JsonProperty("sequence")
+	private Long sequence;
+
+	@JsonProperty("full_snapshot")
+	private boolean fullSnapshot;
+
+	@JsonProperty("removed_devices")
+	private Collection<String> removedDevices;
+
 	@JsonProperty("android_devices")
 	private Collection<DeviceInformation> androidDevices;
 
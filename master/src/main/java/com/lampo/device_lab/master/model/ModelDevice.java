@@ -53,6 +53,7 @@ import lombok.Data;
 @Data
 public class ModelDevice {
 
+	private String deviceId;
 	private String ip;
 	private boolean isConnected;
 	private String deviceType;
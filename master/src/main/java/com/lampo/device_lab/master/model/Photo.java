@@ -63,5 +63,8 @@ public class Photo {
 
 	private String name;
 
+	/* md5 of the image, lets seeding skip images which are already stored */
+	private String hash;
+
 	private Binary image;
 }
\ No newline at end of file
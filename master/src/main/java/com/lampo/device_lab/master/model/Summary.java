@@ -1,5 +1,6 @@
 package com.lampo.device_lab.master.model;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -67,5 +68,10 @@ public class Summary {
 	private String id;
 
 	private String date;
+
+	/* midnight utc of the date, indexed for range queries */
+	@JsonIgnore
+	private Date day;
+
 	private Map<String, SummaryInfo> info = new HashMap<>();
 }
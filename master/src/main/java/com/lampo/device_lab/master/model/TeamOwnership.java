@@ -0,0 +1,289 @@
+package com.lampo.device_lab.master.model;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+public final class TeamOwnership {
+
+	public static final String DEFAULT_TEAM = "common";
+
+	private static final String ANDROID = "android";
+	private static final String IOS = "ios";
+
+	/* '.' is left out on purpose, device ids like '10.0.0.1:5555' are meant literally */
+	private static final Pattern REGEX_CHARS = Pattern.compile("[\\\\^$|?*+()\\[\\]{}]");
+
+	public static final TeamOwnership EMPTY = new TeamOwnership(Collections.emptyList());
+
+	private final Map<String, Team> teams;
+	private final Map<String, String> literalOwners;
+	private final List<Entry<Pattern, String>> patternOwners;
+
+	public TeamOwnership(@NonNull Collection<TeamMapping> mappings) {
+		Map<String, Team> teams = new LinkedHashMap<>();
+		mappings.stream().filter(e -> e.getName() != null)
+				.forEach(e -> teams.putIfAbsent(e.getName().toLowerCase(), new Team(e)));
+
+		for (Team team : teams.values()) {
+			team.otherTeamDevices.put(ANDROID, union(teams.values(), team, ANDROID));
+			team.otherTeamDevices.put(IOS, union(teams.values(), team, IOS));
+		}
+
+		Map<String, String> literalOwners = new HashMap<>();
+		List<Entry<Pattern, String>> patternOwners = new ArrayList<>();
+		teams.values().stream().filter(e -> !DEFAULT_TEAM.equalsIgnoreCase(e.name)).forEach(team -> {
+			for (DeviceMatcher matcher : team.devices.values()) {
+				matcher.literals.forEach(id -> literalOwners.putIfAbsent(id, team.name));
+				matcher.patterns.forEach(p -> patternOwners.add(new SimpleImmutableEntry<>(p, team.name)));
+			}
+		});
+
+		this.teams = Collections.unmodifiableMap(teams);
+		this.literalOwners = Collections.unmodifiableMap(literalOwners);
+		this.patternOwners = Collections.unmodifiableList(patternOwners);
+	}
+
+	/**
+	 * @param teamName {@link String}
+	 * @return name of the team as stored, matched case insensitively, or
+	 *         <code>null</code>
+	 */
+	public String findTeam(String teamName) {
+		Team team = getTeam(teamName);
+		return team == null ? null : team.name;
+	}
+
+	/**
+	 * @param jobLink {@link String}
+	 * @return name of the first team owning a job contained in the link or
+	 *         <code>null</code>
+	 */
+	public String findTeamByJob(String jobLink) {
+		if (jobLink == null || jobLink.trim().isEmpty()) {
+			return null;
+		}
+		return teams.values().stream()
+				.filter(e -> e.jobs.keySet().stream().anyMatch(job -> !job.isEmpty() && jobLink.contains(job)))
+				.map(e -> e.name).findFirst().orElse(null);
+	}
+
+	/**
+	 * @param deviceId {@link String}
+	 * @return name of the team owning the device, {@value #DEFAULT_TEAM} when no
+	 *         team claims it
+	 */
+	public String getOwner(@NonNull String deviceId) {
+		String owner = literalOwners.get(deviceId);
+		if (owner != null) {
+			return owner;
+		}
+		return patternOwners.stream().filter(e -> e.getKey().matcher(deviceId).matches()).map(Entry::getValue)
+				.findFirst().orElse(DEFAULT_TEAM);
+	}
+
+	/**
+	 * @return devices mapped to the team for the platform, an empty matcher for
+	 *         unknown teams
+	 */
+	public DeviceMatcher getDevices(String teamName, String platform) {
+		Team team = getTeam(teamName);
+		return team == null ? DeviceMatcher.NONE : team.devices.get(normalize(platform));
+	}
+
+	/**
+	 * @return devices mapped to every team other than the given one and
+	 *         {@value #DEFAULT_TEAM}, an empty matcher for unknown teams
+	 */
+	public DeviceMatcher getOtherTeamDevices(String teamName, String platform) {
+		Team team = getTeam(teamName);
+		return team == null ? DeviceMatcher.NONE : team.otherTeamDevices.get(normalize(platform));
+	}
+
+	/**
+	 * @return job name to dedicated device ids of the team, empty when the team
+	 *         has no jobs
+	 */
+	public Map<String, Set<String>> getJobs(String teamName) {
+		Team team = getTeam(teamName);
+		return team == null ? Collections.emptyMap() : team.jobs;
+	}
+
+	/**
+	 * @return ids of all devices dedicated to any job of the team
+	 */
+	public Set<String> getAllJobDevices(String teamName) {
+		Team team = getTeam(teamName);
+		return team == null ? Collections.emptySet() : team.allJobDevices;
+	}
+
+	private Team getTeam(String teamName) {
+		return teamName == null ? null : teams.get(teamName.toLowerCase());
+	}
+
+	private static String normalize(String platform) {
+		return ANDROID.equalsIgnoreCase(platform) ? ANDROID : IOS;
+	}
+
+	private static DeviceMatcher union(Collection<Team> teams, Team exclude, String platform) {
+		List<String> ids = new ArrayList<>();
+		teams.stream().filter(e -> e != exclude && !DEFAULT_TEAM.equalsIgnoreCase(e.name))
+				.forEach(e -> ids.addAll(e.devices.get(platform).source));
+		return DeviceMatcher.compile(ids);
+	}
+
+	private static final class Team {
+
+		private final String name;
+		private final Map<String, DeviceMatcher> devices = new HashMap<>();
+		private final Map<String, DeviceMatcher> otherTeamDevices = new HashMap<>();
+		private final Map<String, Set<String>> jobs;
+		private final Set<String> allJobDevices;
+
+		private Team(TeamMapping mapping) {
+			this.name = mapping.getName();
+			DeviceMapping mapped = mapping.getDevices();
+			this.devices.put(ANDROID, DeviceMatcher.compile(mapped == null ? null : mapped.getAndroid()));
+			this.devices.put(IOS, DeviceMatcher.compile(mapped == null ? null : mapped.getIos()));
+
+			Map<String, Set<String>> jobs = new HashMap<>();
+			Set<String> allJobDevices = new HashSet<>();
+			if (mapping.getJobs() != null) {
+				mapping.getJobs().forEach((job, ids) -> {
+					Set<String> set = ids == null ? Collections.emptySet()
+							: Collections.unmodifiableSet(new HashSet<>(ids));
+					jobs.put(job, set);
+					allJobDevices.addAll(set);
+				});
+			}
+			this.jobs = Collections.unmodifiableMap(jobs);
+			this.allJobDevices = Collections.unmodifiableSet(allJobDevices);
+		}
+	}
+
+	/**
+	 * device ids of a team, plain ids are looked up in a hash set and the rest are
+	 * matched against patterns compiled once
+	 */
+	public static final class DeviceMatcher {
+
+		public static final DeviceMatcher NONE = compile(null);
+
+		private final List<String> source;
+		private final Set<String> literals;
+		private final List<Pattern> patterns;
+
+		private DeviceMatcher(List<String> source, Set<String> literals, List<Pattern> patterns) {
+			this.source = source;
+			this.literals = literals;
+			this.patterns = patterns;
+		}
+
+		static DeviceMatcher compile(Collection<String> ids) {
+			List<String> source = new ArrayList<>();
+			Set<String> literals = new HashSet<>();
+			List<Pattern> patterns = new ArrayList<>();
+			if (ids != null) {
+				for (String id : ids) {
+					if (id == null || id.trim().isEmpty()) {
+						continue;
+					}
+					source.add(id);
+					if (!REGEX_CHARS.matcher(id).find()) {
+						literals.add(id);
+						continue;
+					}
+					try {
+						patterns.add(Pattern.compile(id));
+					} catch (PatternSyntaxException ex) {
+						log.warn("device id '{}' is not a valid pattern, matching it literally", id);
+						literals.add(id);
+					}
+				}
+			}
+			return new DeviceMatcher(Collections.unmodifiableList(source), Collections.unmodifiableSet(literals),
+					Collections.unmodifiableList(patterns));
+		}
+
+		public boolean isEmpty() {
+			return source.isEmpty();
+		}
+
+		public boolean matches(String deviceId) {
+			if (deviceId == null) {
+				return false;
+			}
+			if (literals.contains(deviceId)) {
+				return true;
+			}
+			for (Pattern pattern : patterns) {
+				if (pattern.matcher(deviceId).matches()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
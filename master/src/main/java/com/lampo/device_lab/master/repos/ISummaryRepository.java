@@ -1,17 +1,8 @@
 package com.lampo.device_lab.master.repos;
 
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import com.lampo.device_lab.master.model.Summary;
-import com.lampo.device_lab.master.model.SummaryInfo;
-
-import lombok.NonNull;
 
 /**
  * MIT License <br/>
@@ -64,50 +55,4 @@ import lombok.NonNull;
 public interface ISummaryRepository extends MongoRepository<Summary, String> {
 
 	Summary findByDate(String date);
-
-	default List<Summary> findBetweenDates(String team, @NonNull String start, @NonNull String end) {
-		return findBetweenDates(LocalDate.parse(start, DateTimeFormatter.ofPattern("dd-MM-yyyy")),
-				LocalDate.parse(end, DateTimeFormatter.ofPattern("dd-MM-yyyy")));
-	}
-
-	default List<Summary> findBetweenDates(@NonNull LocalDate start, @NonNull LocalDate end) {
-		return findAll().stream().filter(e -> {
-			LocalDate localDate = LocalDate.parse(e.getDate(), DateTimeFormatter.ofPattern("dd-MM-yyyy"));
-			return localDate.compareTo(start) >= 0 && localDate.compareTo(end) <= 0;
-		}).collect(Collectors.toList());
-	}
-
-	default void updateSessionCount(String team) {
-
-		String date = LocalDate.now().format(DateTimeFormatter.ofPattern("dd-MM-yyyy"));
-
-		Summary summary = findByDate(date);
-		if (summary == null) {
-			summary = new Summary();
-			summary.setDate(date);
-		}
-		Map<String, SummaryInfo> map = summary.getInfo();
-		SummaryInfo info = map.getOrDefault(team, new SummaryInfo());
-		info.setNumberOfSessions(info.getNumberOfSessions() + 1);
-		map.put(team, info);
-		summary.setInfo(map);
-		save(summary);
-	}
-
-	default void updateSessionDuration(String team, long duration) {
-
-		String date = LocalDate.now().format(DateTimeFormatter.ofPattern("dd-MM-yyyy"));
-
-		Summary summary = findByDate(date);
-		if (summary == null) {
-			summary = new Summary();
-			summary.setDate(date);
-		}
-		Map<String, SummaryInfo> map = summary.getInfo();
-		SummaryInfo info = map.getOrDefault(team, new SummaryInfo());
-		info.setTotalDuration(info.getTotalDuration() + duration);
-		map.put(team, info);
-		summary.setInfo(map);
-		save(summary);
-	}
-}
\ No newline at end of file
+}
@@ -1,20 +1,9 @@
 package com.lampo.device_lab.master.repos;
 
-import static com.lampo.device_lab.master.utils.CommonUtilities.isBlank;
-
-import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedHashSet;
-import java.util.Optional;
-import java.util.stream.Collectors;
-
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-import com.lampo.device_lab.master.grid.DeviceFilter;
 import com.lampo.device_lab.master.model.TeamMapping;
 
-import lombok.NonNull;
-
 /**
  * MIT License <br/>
  * <br/>
@@ -67,60 +56,4 @@ public interface ITeamRepository extends MongoRepository<TeamMapping, String> {
 
 	TeamMapping findByName(String team);
 
-	default Collection<String> getDevicesByTeam(@NonNull String teamName) {
-		Optional<TeamMapping> find = findAll().stream()
-				.filter(e -> teamName.equalsIgnoreCase(e.getName()) && e.getDevices() != null).findFirst();
-		if (!find.isPresent()) {
-			return Collections.emptyList();
-		}
-		Collection<String> devices = new LinkedHashSet<>();
-		devices.addAll(find.get().getDevices().getAndroid());
-		devices.addAll(find.get().getDevices().getIos());
-		return devices;
-	}
-
-	default Collection<String> getDevicesByTeam(@NonNull String teamName, @NonNull String platform) {
-		Optional<TeamMapping> mapping = findAll().stream().filter(e -> teamName.equalsIgnoreCase(e.getName()))
-				.findFirst();
-		if (mapping.isPresent()) {
-			return "android".equalsIgnoreCase(platform) ? mapping.get().getDevices().getAndroid()
-					: mapping.get().getDevices().getIos();
-		}
-		return Collections.emptyList();
-	}
-
-	default String findTeam(@NonNull DeviceFilter filter) {
-		Optional<TeamMapping> mapping = findAll().stream()
-				.filter(e -> e.getName().equalsIgnoreCase(filter.getTeamName())
-						|| (isBlank(filter.getJobLink()) && (e.getJobs() != null && e.getJobs().keySet().stream()
-								.anyMatch(f -> filter.getJobLink() != null && filter.getJobLink().contains(f)))))
-				.findFirst();
-		return mapping.isPresent() ? mapping.get().getName() : null;
-	}
-
-	default Collection<String> getDevicesByJobName(@NonNull String jobName, @NonNull String platform) {
-		Optional<TeamMapping> mapping = findAll().stream()
-				.filter(e -> e.getJobs() != null && e.getJobs().keySet().stream().allMatch(jobName::contains))
-				.findFirst();
-		if (mapping.isPresent()) {
-			return "android".equalsIgnoreCase(platform) ? mapping.get().getDevices().getAndroid()
-					: mapping.get().getDevices().getIos();
-		}
-		return Collections.emptyList();
-	}
-
-	default String getTeam(@NonNull String deviceId) {
-		return findAll().stream().filter(e -> e.getDevices() != null
-				&& ((e.getDevices().getIos() != null && e.getDevices().getIos().contains(deviceId))
-						|| (e.getDevices().getAndroid() != null && e.getDevices().getAndroid().contains(deviceId))))
-				.map(TeamMapping::getName).findFirst().orElse("common");
-	}
-
-	default Collection<String> getTeamDevices(@NonNull String platform) {
-		return findAll().stream().filter(e -> !"common".equalsIgnoreCase(e.getName())).flatMap(
-				e -> ("android".equalsIgnoreCase(platform) ? e.getDevices().getAndroid() : e.getDevices().getIos())
-						.stream())
-				.collect(Collectors.toList());
-	}
-
-}
\ No newline at end of file
+}
@@ -9,10 +9,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
@@ -24,7 +24,6 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
@@ -41,10 +40,8 @@ import com.lampo.device_lab.master.model.DeviceRestrictionRequest;
 import com.lampo.device_lab.master.model.DeviceStatus;
 import com.lampo.device_lab.master.model.Header;
 import com.lampo.device_lab.master.model.NodeCapability;
-import com.lampo.device_lab.master.model.TeamMapping;
-import com.lampo.device_lab.master.repos.IDeviceRepository;
-import com.lampo.device_lab.master.repos.ISummaryRepository;
-import com.lampo.device_lab.master.repos.ITeamRepository;
+import com.lampo.device_lab.master.model.TeamOwnership;
+import com.lampo.device_lab.master.model.TeamOwnership.DeviceMatcher;
 import com.lampo.device_lab.master.utils.CommonUtilities;
 import com.lampo.device_lab.master.utils.RequestUtils;
 
@@ -103,13 +100,13 @@ import lombok.extern.slf4j.Slf4j;
 @Service
 public class AllocationService {
 
-	private static final String DEFAULT_TEAM = "common";
+	private static final String DEFAULT_TEAM = TeamOwnership.DEFAULT_TEAM;
 
 	@Autowired
-	private IDeviceRepository deviceRepository;
+	private DeviceInventory inventory;
 
 	@Autowired
-	private ITeamRepository teamRepository;
+	private TeamOwnershipService teamOwnership;
 
 	@Autowired
 	private RestTemplate restTemplate;
@@ -118,13 +115,14 @@ public class AllocationService {
 	private String slaveAuthToken;
 
 	@Autowired
-	private ISummaryRepository summaryRepository;
+	private SummaryService summaryService;
+
+	@Autowired
+	private UtilizationService utilizationService;
 
 	@Value("${slave.port}")
 	private int slavePort;
 
-	private final ReentrantLock lock = new ReentrantLock();
-
 	private String getLogPrefix(HttpServletRequest request) {
 		String requestId = getHeader(request, Header.REQUEST_ID);
 		String clientIp = RequestUtils.getClientIp(request);
@@ -147,62 +145,81 @@ public class AllocationService {
 	public boolean updateDeviceStatus(@NonNull String slaveIp, @NonNull DeviceStatus status, @NonNull String deviceId,
 			HttpServletRequest servletRequest) {
 
-		synchronized (AllocationService.class) {
-			String requestId = getHeader(servletRequest, Header.REQUEST_ID);
-			try {
-				Optional<Device> optional = this.deviceRepository.findById(deviceId, slaveIp);
-				if (optional.isPresent()) {
-					Device device = optional.get();
-					if (status == DeviceStatus.REMOVE) {
-						deviceRepository.delete(device);
-						return true;
-					} else {
-						device.setFree(status == DeviceStatus.FREE);
-
-						String teamName = getHeader(servletRequest, Header.TEAM);
-
-						if (isBlank(teamName)) {
-							log.error(
-									"action '{}' ::: team name is empty when releasing device '{}' on slave '{}' - headers - {}",
-									status, device.getId(), device.getSlaveIp(),
-									servletRequest == null ? ""
-											: Collections.list(servletRequest.getHeaderNames()).stream()
-													.map(e -> e + " : " + servletRequest.getHeader(e))
-													.collect(Collectors.joining(",")));
-						}
-
-						if (status == DeviceStatus.BUSY) {
-							device.setLastAllocationStart(new Date());
-							device.setLastAllocationEnd(null);
-							String jobLink = getHeader(servletRequest, Header.JOB_LINK);
-
-							updateSummary(teamName, -1);
-
-							AllocatedTo allocatedTo = new AllocatedTo(getHeader(servletRequest, Header.REQUESTOR_IP),
-									getHeader(servletRequest, Header.USER), jobLink, getTeam(teamName, jobLink));
-							device.setLastAllocatedTo(allocatedTo);
-						} else {
-							device.setLastAllocatedTo(null);
-							device.setLastAllocationEnd(new Date());
-
-							if (device.getLastAllocationStart() != null && device.getLastAllocationEnd() != null) {
-
-								long durationInSec = device.getLastAllocationEnd().getTime()
-										- device.getLastAllocationStart().getTime();
-
-								updateSummary(teamName, durationInSec);
-
-								device.setLastSessionDuration(durationInSec);
-							}
-						}
-						return (null != this.deviceRepository.save(device));
+		String requestId = getHeader(servletRequest, Header.REQUEST_ID);
+		try {
+			return inventory.update(deviceId, slaveIp, device -> {
+				if (device == null) {
+					return false;
+				}
+				if (status == DeviceStatus.REMOVE) {
+					inventory.delete(device);
+					return true;
+				} else {
+					boolean wasFree = device.isFree();
+
+					/* the indexed device is only replaced once the copy is written */
+					Device copy = device.copy();
+					copy.setFree(status == DeviceStatus.FREE);
+
+					String teamName = getHeader(servletRequest, Header.TEAM);
+
+					if (isBlank(teamName)) {
+						log.error(
+								"action '{}' ::: team name is empty when releasing device '{}' on slave '{}' - headers - {}",
+								status, device.getId(), device.getSlaveIp(),
+								servletRequest == null ? ""
+										: Collections.list(servletRequest.getHeaderNames()).stream()
+												.map(e -> e + " : " + servletRequest.getHeader(e))
+												.collect(Collectors.joining(",")));
+					}
+
+					if (status == DeviceStatus.BUSY) {
+						copy.setLastAllocationStart(new Date());
+						copy.setLastAllocationEnd(null);
+						String jobLink = getHeader(servletRequest, Header.JOB_LINK);
+
+						AllocatedTo allocatedTo = new AllocatedTo(getHeader(servletRequest, Header.REQUESTOR_IP),
+								getHeader(servletRequest, Header.USER), jobLink, getTeam(teamName, jobLink));
+						copy.setLastAllocatedTo(allocatedTo);
+
+						Device saved = this.inventory.save(copy);
+						updateSummary(teamName, -1);
+						return null != saved;
+					} else if (wasFree) {
+						/* the reaper and the proxy may both release a session, only the first one counts */
+						log.debug("request '{}' ::: device '{}' on slave '{}' is already free", requestId, deviceId,
+								slaveIp);
+						return (null != this.inventory.save(copy));
+					}
+
+					AllocatedTo allocatedTo = copy.getLastAllocatedTo();
+					copy.setLastAllocatedTo(null);
+					copy.setLastAllocationEnd(new Date());
+
+					boolean record = allocatedTo != null && copy.getLastAllocationStart() != null;
+					long durationInSec = record
+							? copy.getLastAllocationEnd().getTime() - copy.getLastAllocationStart().getTime()
+							: 0;
+					if (record) {
+						copy.setLastSessionDuration(durationInSec);
+					}
+
+					Device saved = this.inventory.save(copy);
+					if (record) {
+						updateSummary(teamName, durationInSec);
+
+						String jobLink = allocatedTo.getJenkinsJobLink();
+						utilizationService.recordSession(saved.getId(), saved.getSlaveIp(),
+								isBlank(allocatedTo.getTeam()) ? teamName : allocatedTo.getTeam(),
+								isBlank(jobLink) ? null : extractJobName(jobLink), saved.getLastAllocationStart(),
+								saved.getLastAllocationEnd());
 					}
+					return (null != saved);
 				}
-				return false;
-			} finally {
-				log.info("request '{}' ::: updating status of device '{}' on slave '{}' to '{}'", requestId, deviceId,
-						slaveIp, status);
-			}
+			});
+		} finally {
+			log.info("request '{}' ::: updating status of device '{}' on slave '{}' to '{}'", requestId, deviceId,
+					slaveIp, status);
 		}
 	}
 
@@ -210,9 +227,9 @@ public class AllocationService {
 
 		log.debug("updating summary info => team: {} and duration: {}", team, duration);
 		if (duration == -1) {
-			summaryRepository.updateSessionCount(team);
+			summaryService.addSession(team);
 		} else {
-			summaryRepository.updateSessionDuration(team, duration);
+			summaryService.addDuration(team, duration);
 		}
 
 	}
@@ -233,9 +250,8 @@ public class AllocationService {
 		if (isBlank(jobLink)) {
 			return null;
 		}
-		return teamRepository.findAll().stream()
-				.filter(e -> e.getJobs() != null && e.getJobs().keySet().stream().allMatch(jobLink::contains))
-				.map(TeamMapping::getName).findAny().orElse("").toUpperCase();
+		String owner = teamOwnership.get().findTeamByJob(jobLink);
+		return owner == null ? "" : owner.toUpperCase();
 	}
 
 	public Collection<Device> unallocateAllDevices(HttpServletRequest servletRequest) {
@@ -247,8 +263,8 @@ public class AllocationService {
 
 		log.info("{} ::: device unallocate request '{}'", getLogPrefix(servletRequest), request);
 
-		Collection<Device> devices = (request == null) ? this.deviceRepository.findAll()
-				: (Collection<Device>) this.deviceRepository.findAll().stream()
+		Collection<Device> devices = (request == null) ? this.inventory.findAll()
+				: (Collection<Device>) this.inventory.findAll().stream()
 						.filter(device -> (!device.isFree() && getDeviceRestrictionRequestFilter(request, device)))
 						.collect(Collectors.toList());
 
@@ -262,10 +278,27 @@ public class AllocationService {
 
 	}
 
+	/**
+	 * frees the given devices without filtering the whole inventory again, for
+	 * callers which already hold a snapshot
+	 *
+	 * @param devices {@link Collection}
+	 * @return number of devices freed
+	 */
+	public int unallocateDevices(@NonNull Collection<Device> devices) {
+		int count = 0;
+		for (Device device : devices) {
+			if (unallocateDevice(device.getDeviceInformation().getDeviceId(), device.getSlaveIp(), null)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
 	private boolean unallocateDevice(@NonNull String deviceId, @NonNull String slaveIp,
 			HttpServletRequest servletRequest) {
 
-		Optional<Device> device = this.deviceRepository.findById(deviceId, slaveIp);
+		Optional<Device> device = this.inventory.find(deviceId, slaveIp);
 		if (!device.isPresent()) {
 			return false;
 		}
@@ -302,8 +335,7 @@ public class AllocationService {
 	 */
 	public void restartAllDevices(String slaveIp, HttpServletRequest servletRequest) {
 
-		Collection<String> allSlaveIps = deviceRepository.findAll().stream().map(Device::getSlaveIp).distinct()
-				.collect(Collectors.toList());
+		Collection<String> allSlaveIps = inventory.findSlaves();
 
 		if (!isBlank(slaveIp) && !allSlaveIps.contains(slaveIp)) {
 			throw new DeviceManagerException(String.format("unknown slave ip '%s'", slaveIp), HttpStatus.BAD_REQUEST);
@@ -380,55 +412,65 @@ public class AllocationService {
 
 	public DeviceInfo getMatchingCapabilityNode(@NonNull DeviceMatchRequest request,
 			HttpServletRequest servletRequest) {
+		return getMatchingCapabilityNode(request, getRequestId(servletRequest));
+	}
 
-		try {
-			lock.lock();
-			if (request.getNodeCapability() == null) {
-				throw new DeviceManagerException("'node_capability' missing in request");
-			}
-			if (request.getFilter() == null
-					|| (isBlank(request.getFilter().getJobLink()) && isBlank(request.getFilter().getTeamName()))) {
-				throw new DeviceManagerException("'filter' missing in request");
-			}
-
-			String requestId = getRequestId(servletRequest);
+	/**
+	 * filters the free devices for the request and claims the first one available
+	 *
+	 * @param request   {@link DeviceMatchRequest}
+	 * @param requestId {@link String}
+	 * @return claimed {@link DeviceInfo} or <code>null</code>
+	 */
+	public DeviceInfo getMatchingCapabilityNode(@NonNull DeviceMatchRequest request, String requestId) {
 
-			List<DeviceInfo> devices = filterDevice(request, requestId);
+		if (request.getNodeCapability() == null) {
+			throw new DeviceManagerException("'node_capability' missing in request");
+		}
+		if (request.getFilter() == null
+				|| (isBlank(request.getFilter().getJobLink()) && isBlank(request.getFilter().getTeamName()))) {
+			throw new DeviceManagerException("'filter' missing in request");
+		}
 
-			log.info("request '{}' ::: devices matching the criteria '{}' => {}", requestId, request, devices);
+		List<DeviceInfo> devices = filterDevice(request, requestId);
 
-			Optional<DeviceInfo> found = Optional.ofNullable(devices.isEmpty() ? null : devices.get(0));
+		log.info("request '{}' ::: devices matching the criteria '{}' => {}", requestId, request, devices);
 
-			if (found.isPresent()) {
-				log.info("request '{}' ::: picking up device '{}' allocated to '{} team'", requestId, found,
+		/* concurrent requests may race for the same device, the first to claim it wins */
+		for (DeviceInfo device : devices) {
+			if (inventory.claim(device.getDeviceId(), device.getSlaveIp())) {
+				log.info("request '{}' ::: picking up device '{}' allocated to '{} team'", requestId, device,
 						request.getFilter().getTeamName());
+				return device;
 			}
-			return found.isPresent() ? found.get() : null;
-
-		} finally {
-			lock.unlock();
+			log.debug("request '{}' ::: device '{}' on slave '{}' is claimed by another request", requestId,
+					device.getDeviceId(), device.getSlaveIp());
 		}
+		return null;
 	}
 
 	private List<DeviceInfo> filterDevice(DeviceMatchRequest request, String requestId) {
 
+		/* one snapshot for the whole decision, team writes swap in a new one */
+		TeamOwnership ownership = teamOwnership.get();
+
 		String platform = request.getNodeCapability().getPlatform();
 		String team = getTeam(request.getFilter());
-		Collection<String> otherTeamDevices = getOtherTeamDevices(request.getFilter(), platform);
+		DeviceMatcher otherTeamDevices = getOtherTeamDevices(ownership, request.getFilter(), platform);
 
-		List<DeviceInfo> devices = filter(request, getDevices(team, platform), otherTeamDevices);
+		List<DeviceInfo> devices = filter(request, ownership.getDevices(team, platform), otherTeamDevices);
 
-		devices.addAll(filter(request, getDevices(DEFAULT_TEAM, platform), otherTeamDevices));
+		devices.addAll(filter(request, ownership.getDevices(DEFAULT_TEAM, platform), otherTeamDevices));
 
 		log.info("request '{}' ::: filtered devices for team '{}' and platform '{}' => {}", requestId, team, platform,
 				devices.stream().map(DeviceInfo::getDeviceId).collect(Collectors.toList()));
 
-		TeamMapping mapping = teamRepository.findByName(team);
+		Map<String, Set<String>> jobs = ownership.getJobs(team);
 
-		if (mapping != null && mapping.getJobs() != null && isNotBlank(request.getFilter().getJobLink())) {
+		if (!jobs.isEmpty() && isNotBlank(request.getFilter().getJobLink())) {
 
 			String jobName = extractJobName(request.getFilter().getJobLink());
-			List<String> jobDevices = mapping.getJobs().get(jobName);
+			Set<String> jobDevices = jobName == null ? null : jobs.get(jobName);
 
 			if (jobDevices != null && !jobDevices.isEmpty()) {
 				/* pickup devices dedicated to the job */
@@ -439,8 +481,7 @@ public class AllocationService {
 				return list;
 			} else {
 				/* restrict using devices allocated to other jobs */
-				List<String> allJobDevices = mapping.getJobs().values().stream().flatMap(Collection::stream)
-						.collect(Collectors.toList());
+				Set<String> allJobDevices = ownership.getAllJobDevices(team);
 				return devices.stream().filter(e -> !allJobDevices.contains(e.getDeviceId()))
 						.collect(Collectors.toList());
 			}
@@ -448,13 +489,12 @@ public class AllocationService {
 		return devices;
 	}
 
-	private List<DeviceInfo> filter(DeviceMatchRequest request, Collection<String> devices,
-			Collection<String> excludeDevices) {
+	private List<DeviceInfo> filter(DeviceMatchRequest request, DeviceMatcher devices, DeviceMatcher excludeDevices) {
 
-		return deviceRepository
-				.findFreeDevices().stream()
-				.filter(e -> devices.isEmpty() || devices.stream().anyMatch(f -> e.getId().matches(f)))
-				.filter(e -> excludeDevices.isEmpty() || excludeDevices.stream().noneMatch(f -> e.getId().matches(f)))
+		return inventory
+				.findFreeDevices(request.getNodeCapability().getPlatform()).stream()
+				.filter(e -> devices.isEmpty() || devices.matches(e.getId()))
+				.filter(e -> !excludeDevices.matches(e.getId()))
 				.map(this::toNodeCapability)
 				.filter(e -> CustomGridNodeCapabilityMatcher.match(e, request.getNodeCapability()))
 				.map(e -> {
@@ -472,21 +512,12 @@ public class AllocationService {
 		return getTeam(filter.getTeamName(), filter.getJobLink());
 	}
 
-	private Collection<String> getOtherTeamDevices(DeviceFilter filter, String platform) {
-		String team = teamRepository.findTeam(filter);
-		if (!isBlank(team)) {
-			return teamRepository
-					.findAll().stream()
-					.filter(e -> !(team.equalsIgnoreCase(e.getName()) || DEFAULT_TEAM.equalsIgnoreCase(e.getName())))
-					.map(e -> "android".equalsIgnoreCase(platform) ? e.getDevices().getAndroid()
-							: e.getDevices().getIos())
-					.flatMap(Collection::stream).collect(Collectors.toSet());
+	private DeviceMatcher getOtherTeamDevices(TeamOwnership ownership, DeviceFilter filter, String platform) {
+		String team = ownership.findTeam(filter.getTeamName());
+		if (team == null && isBlank(filter.getTeamName())) {
+			team = ownership.findTeamByJob(filter.getJobLink());
 		}
-		return Collections.emptySet();
-	}
-
-	private Collection<String> getDevices(@NonNull String team, String platform) {
-		return !isBlank(team) ? teamRepository.getDevicesByTeam(team, platform) : Collections.emptyList();
+		return ownership.getOtherTeamDevices(team, platform);
 	}
 
 	private NodeCapability toNodeCapability(@NonNull Device device) {
@@ -507,28 +538,4 @@ public class AllocationService {
 		return node;
 	}
 
-	public String getLogUrl(String requestId, HttpServletRequest servletRequest) {
-		return deviceRepository.findSlaves().stream().parallel().map(e -> {
-			String url = String.format("http://%s:%s/appium/logs/session-logs/%s.log", e, slavePort, requestId);
-			return isPresent(servletRequest, url);
-		}).filter(Objects::nonNull).findFirst().orElse(null);
-	}
-
-	public String getVideoUrl(String requestId, HttpServletRequest servletRequest) {
-		return deviceRepository.findSlaves().stream().parallel().map(e -> {
-			String url = String.format("http://%s:%s/appium/logs/session-videos/%s.mp4", e, slavePort, requestId);
-			return isPresent(servletRequest, url);
-		}).filter(Objects::nonNull).findFirst().orElse(null);
-	}
-
-	private String isPresent(HttpServletRequest servletRequest, String url) {
-		try {
-			ResponseEntity<String> responseEntity = restTemplate.exchange(url, HttpMethod.HEAD,
-					getHttpEntity(null, getRequestId(servletRequest)), String.class);
-			return responseEntity.getStatusCode() == HttpStatus.OK ? url : null;
-		} catch (Throwable ex) {
-			return null;
-		}
-	}
-
 }
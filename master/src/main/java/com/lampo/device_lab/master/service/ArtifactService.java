@@ -0,0 +1,270 @@
+package com.lampo.device_lab.master.service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import com.lampo.device_lab.master.model.ArtifactType;
+import com.lampo.device_lab.master.model.Header;
+import com.lampo.device_lab.master.utils.SharedHttpClient;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class ArtifactService {
+
+	private static final int STREAM_TIMEOUT_IN_SEC = 300;
+	private static final int LOOKUP_TIMEOUT_IN_SEC = 5;
+
+	private static final List<String> FORWARDED_REQUEST_HEADERS = Arrays.asList(HttpHeaders.RANGE,
+			HttpHeaders.IF_RANGE);
+	private static final List<String> FORWARDED_RESPONSE_HEADERS = Arrays.asList(HttpHeaders.CONTENT_LENGTH,
+			HttpHeaders.CONTENT_RANGE, HttpHeaders.ACCEPT_RANGES, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED);
+
+	private static ArtifactService instance;
+
+	@Autowired
+	private DeviceInventory inventory;
+
+	@Value("${slave.auth_token}")
+	private String slaveAuthToken;
+
+	@Value("${slave.port}")
+	private int slavePort;
+
+	@Value("${custom.artifacts.index_size:10000}")
+	private int indexSize;
+
+	private Map<String, Artifacts> index;
+
+	/**
+	 * the grid proxy is created by selenium and not by spring, so it records
+	 * artifacts through this accessor
+	 *
+	 * @return {@link ArtifactService} or <code>null</code> before the context is
+	 *         ready
+	 */
+	public static ArtifactService getInstance() {
+		return instance;
+	}
+
+	@PostConstruct
+	public void init() {
+		int maxSize = Math.max(16, indexSize);
+		this.index = Collections.synchronizedMap(new LinkedHashMap<String, Artifacts>(256, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Artifacts> eldest) {
+				return size() > maxSize;
+			}
+		});
+		instance = this;
+	}
+
+	@PreDestroy
+	public void destroy() {
+		instance = null;
+	}
+
+	/**
+	 * remembers the slave holding the artifacts of a finished session
+	 *
+	 * @param requestId {@link String}
+	 * @param slaveIp   {@link String}
+	 * @param types     artifacts generated successfully
+	 */
+	public void record(String requestId, String slaveIp, @NonNull Set<ArtifactType> types) {
+		if (requestId == null || slaveIp == null || types.isEmpty()) {
+			return;
+		}
+		index.merge(requestId, new Artifacts(slaveIp, types), (old, e) -> old.slaveIp.equals(e.slaveIp)
+				? new Artifacts(slaveIp, union(old.types, e.types))
+				: e);
+	}
+
+	/**
+	 * @return ip of the slave holding the artifact or <code>null</code> when the
+	 *         index has no entry for the request
+	 */
+	public String find(@NonNull String requestId, @NonNull ArtifactType type) {
+		Artifacts artifacts = index.get(requestId);
+		return artifacts != null && artifacts.types.contains(type) ? artifacts.slaveIp : null;
+	}
+
+	/**
+	 * relays the artifact from the slave holding it, range requests are forwarded
+	 * so seeking in a video does not download what precedes it
+	 *
+	 * @param requestId {@link String}
+	 * @param type      {@link ArtifactType}
+	 */
+	public void stream(@NonNull String requestId, @NonNull ArtifactType type, @NonNull HttpServletRequest request,
+			@NonNull HttpServletResponse response) throws IOException {
+
+		String slaveIp = find(requestId, type);
+		if (slaveIp == null) {
+			slaveIp = lookup(requestId, type);
+		}
+		if (slaveIp == null) {
+			log.info("request '{}' ::: no slave has '{}' for the session", requestId, type.getPath());
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		Request.Builder builder = new Request.Builder().url(getUrl(slaveIp, type, requestId))
+				.header(Header.AUTH.toString(), slaveAuthToken).header(Header.REQUEST_ID.toString(), requestId);
+		for (String name : FORWARDED_REQUEST_HEADERS) {
+			String value = request.getHeader(name);
+			if (value != null) {
+				builder.header(name, value);
+			}
+		}
+		builder = "HEAD".equalsIgnoreCase(request.getMethod()) ? builder.head() : builder.get();
+
+		try (Response slaveResponse = SharedHttpClient.withTimeout(STREAM_TIMEOUT_IN_SEC).newCall(builder.build())
+				.execute()) {
+
+			response.setStatus(slaveResponse.code());
+			response.setContentType(type.getContentType());
+			for (String name : FORWARDED_RESPONSE_HEADERS) {
+				String value = slaveResponse.header(name);
+				if (value != null) {
+					response.setHeader(name, value);
+				}
+			}
+			ResponseBody body = slaveResponse.body();
+			if (body == null || !slaveResponse.isSuccessful() || "HEAD".equalsIgnoreCase(request.getMethod())) {
+				return;
+			}
+			body.source().readAll(Okio.sink(response.getOutputStream()));
+			response.flushBuffer();
+		}
+	}
+
+	/**
+	 * asks every slave for the artifact, only used for sessions recorded before a
+	 * restart of the hub or evicted from the index
+	 */
+	private String lookup(String requestId, ArtifactType type) {
+		String slaveIp = inventory.findSlaves().stream().parallel().filter(e -> isPresent(e, type, requestId))
+				.findFirst().orElse(null);
+		if (slaveIp != null) {
+			record(requestId, slaveIp, EnumSet.of(type));
+		}
+		return slaveIp;
+	}
+
+	private boolean isPresent(String slaveIp, ArtifactType type, String requestId) {
+		Request request = new Request.Builder().url(getUrl(slaveIp, type, requestId)).head()
+				.header(Header.AUTH.toString(), slaveAuthToken).header(Header.REQUEST_ID.toString(), requestId)
+				.build();
+		try (Response response = SharedHttpClient.withTimeout(LOOKUP_TIMEOUT_IN_SEC).newCall(request).execute()) {
+			return response.code() == 200;
+		} catch (Exception ex) {
+			log.debug("{} occurred while looking up '{}' of request '{}' on slave '{}' with message '{}'",
+					ex.getClass().getName(), type.getPath(), requestId, slaveIp, ex.getMessage());
+			return false;
+		}
+	}
+
+	private String getUrl(String slaveIp, ArtifactType type, String requestId) {
+		return String.format("http://%s:%s/device/artifacts/%s/%s", slaveIp, slavePort, type.getPath(), requestId);
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("indexed_sessions", index.size());
+		stats.put("index_size", Math.max(16, indexSize));
+		return stats;
+	}
+
+	private static Set<ArtifactType> union(Set<ArtifactType> a, Set<ArtifactType> b) {
+		Set<ArtifactType> types = EnumSet.noneOf(ArtifactType.class);
+		types.addAll(a);
+		types.addAll(b);
+		return types;
+	}
+
+	private static final class Artifacts {
+
+		private final String slaveIp;
+		private final Set<ArtifactType> types;
+
+		private Artifacts(String slaveIp, Set<ArtifactType> types) {
+			this.slaveIp = Objects.requireNonNull(slaveIp);
+			this.types = Collections.unmodifiableSet(EnumSet.copyOf(types));
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package com.lampo.device_lab.master.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.Context;
+
+import com.lampo.device_lab.master.model.DeviceKey;
+import com.lampo.device_lab.master.model.ModelDevice;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class DashboardFeed {
+
+	private static final long TIMEOUT_IN_MSEC = TimeUnit.MINUTES.toMillis(30);
+	private static final long DISPATCH_DELAY_IN_MSEC = 500;
+	private static final long HEARTBEAT_IN_SEC = 20;
+
+	@Autowired
+	private DeviceInventory inventory;
+
+	@Autowired
+	private DashboardService dashboard;
+
+	@Autowired
+	private ITemplateEngine templateEngine;
+
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	private final Set<DeviceKey> changed = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+	private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "dashboard-feed");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@PostConstruct
+	public void init() {
+		inventory.addChangeListener(this::onChange);
+		dashboard.addInvalidationListener(this::refreshAll);
+		dispatcher.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_IN_SEC, HEARTBEAT_IN_SEC, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		dispatcher.shutdownNow();
+		subscribers.forEach(e -> e.emitter.complete());
+		subscribers.clear();
+	}
+
+	/**
+	 * @param clientIp {@link String} cards are rendered per client ip since stf
+	 *                 links depend on it
+	 * @return {@link SseEmitter} streaming 'device' events with the re-rendered
+	 *         card of every changed device and 'refresh' events when the whole
+	 *         list has to be reloaded
+	 */
+	public SseEmitter subscribe(String clientIp) {
+		SseEmitter emitter = new SseEmitter(TIMEOUT_IN_MSEC);
+		Subscriber subscriber = new Subscriber(emitter, clientIp == null ? "" : clientIp);
+		subscribers.add(subscriber);
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		emitter.onError(ex -> subscribers.remove(subscriber));
+		log.debug("dashboard of '{}' subscribed, '{}' open dashboards", clientIp, subscribers.size());
+		return emitter;
+	}
+
+	private void refreshAll() {
+		for (Subscriber subscriber : subscribers) {
+			send(subscriber, SseEmitter.event().name("refresh").data(""));
+		}
+	}
+
+	private void onChange(@NonNull DeviceKey key) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		changed.add(key);
+		/* bursts such as a slave sync are coalesced into one dispatch */
+		if (dispatchScheduled.compareAndSet(false, true)) {
+			dispatcher.schedule(this::dispatch, DISPATCH_DELAY_IN_MSEC, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void dispatch() {
+		dispatchScheduled.set(false);
+		List<DeviceKey> keys = new ArrayList<>();
+		for (DeviceKey key : changed) {
+			if (changed.remove(key)) {
+				keys.add(key);
+			}
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+
+		Map<String, List<Subscriber>> byClient = subscribers.stream()
+				.collect(Collectors.groupingBy(e -> e.clientIp));
+		byClient.forEach((clientIp, list) -> {
+			for (DeviceKey key : keys) {
+				try {
+					ModelDevice device = dashboard.getDevice(key, clientIp);
+					SseEmitter.SseEventBuilder event = device == null ? SseEmitter.event().name("refresh").data("")
+							: SseEmitter.event().name("device").data(render(key, device), MediaType.APPLICATION_JSON);
+					list.forEach(e -> send(e, event));
+				} catch (Exception ex) {
+					log.error("{} occurred while rendering card of device '{}' with message '{}'",
+							ex.getClass().getName(), key, ex.getMessage());
+				}
+			}
+		});
+	}
+
+	private Map<String, String> render(DeviceKey key, ModelDevice device) {
+		Context context = new Context();
+		context.setVariable("instance", device);
+		Map<String, String> data = new LinkedHashMap<>();
+		data.put("key", key.getSlaveIp() + "/" + key.getDeviceId());
+		data.put("html", templateEngine.process("fragments/card", Collections.singleton("card"), context));
+		return data;
+	}
+
+	private void heartbeat() {
+		for (Subscriber subscriber : subscribers) {
+			send(subscriber, SseEmitter.event().comment("heartbeat"));
+		}
+	}
+
+	private void send(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+		try {
+			subscriber.emitter.send(event);
+		} catch (IOException | IllegalStateException ex) {
+			/* the browser went away, the emitter callbacks may not fire for a broken pipe */
+			subscribers.remove(subscriber);
+			subscriber.emitter.completeWithError(ex);
+		}
+	}
+
+	private static class Subscriber {
+
+		private final SseEmitter emitter;
+		private final String clientIp;
+
+		private Subscriber(SseEmitter emitter, String clientIp) {
+			this.emitter = emitter;
+			this.clientIp = clientIp;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package com.lampo.device_lab.master.service;
+
+import static com.lampo.device_lab.master.utils.CommonUtilities.getClippedName;
+import static java.util.stream.Collectors.groupingBy;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.lampo.device_lab.master.model.DashboardView;
+import com.lampo.device_lab.master.model.Device;
+import com.lampo.device_lab.master.model.DeviceKey;
+import com.lampo.device_lab.master.model.DeviceStatusModel;
+import com.lampo.device_lab.master.model.HeldBy;
+import com.lampo.device_lab.master.model.ModelDevice;
+import com.lampo.device_lab.master.repos.IDeviceStatusRepository;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class DashboardService {
+
+	private static final int STF_PORT = 7100;
+
+	@Autowired
+	private PhoneImageService phoneImageService;
+
+	@Autowired
+	private DeviceInventory inventory;
+
+	@Autowired
+	private TeamOwnershipService teamOwnership;
+
+	@Autowired
+	private IDeviceStatusRepository deviceStatusRepo;
+
+	private final Comparator<ModelDevice> comparator = (e1, e2) -> Integer.valueOf(getMajorVersion(e1.getSdkVersion()))
+			.compareTo(Integer.valueOf(getMajorVersion(e2.getSdkVersion())));
+
+	/* views differ only in the stf links of devices connected to the client itself */
+	private static final String REMOTE_VIEW = "*";
+
+	private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+	private final AtomicLong generation = new AtomicLong();
+	private final Map<String, DashboardView> views = new ConcurrentHashMap<>();
+	private final List<Runnable> invalidationListeners = new CopyOnWriteArrayList<>();
+	private volatile Set<String> blacklisted = Collections.emptySet();
+
+	@PostConstruct
+	public void init() {
+		refreshBlacklist();
+		inventory.addChangeListener(key -> invalidate());
+		teamOwnership.addChangeListener(this::invalidateAll);
+		phoneImageService.addChangeListener(this::invalidateAll);
+	}
+
+	/**
+	 * the blacklist is edited in the database directly, so it is polled and
+	 * cached instead of being looked up for every device on every request
+	 */
+	@Scheduled(fixedDelayString = "${custom.dashboard.blacklist_refresh_interval_in_msec:30000}")
+	public void refreshBlacklist() {
+		try {
+			Set<String> latest = deviceStatusRepo.findAll().stream().filter(DeviceStatusModel::isBlacklisted)
+					.map(DeviceStatusModel::get_id).collect(Collectors.toSet());
+			if (!latest.equals(blacklisted)) {
+				blacklisted = Collections.unmodifiableSet(latest);
+				invalidateAll();
+			}
+		} catch (Exception ex) {
+			log.error("{} occurred while refreshing blacklisted devices with message '{}'", ex.getClass().getName(),
+					ex.getMessage());
+		}
+	}
+
+	/**
+	 * registers a listener which is called when a team, photo or blacklist change
+	 * may have altered every card and their order
+	 *
+	 * @param listener {@link Runnable}
+	 */
+	public void addInvalidationListener(@NonNull Runnable listener) {
+		invalidationListeners.add(listener);
+	}
+
+	/**
+	 * @param clientIp {@link String} links to stf point to localhost for devices
+	 *                 connected to the client itself
+	 * @return prebuilt cards of all devices which are not blacklisted, grouped by
+	 *         platform and owner, with an etag that changes whenever the cards
+	 *         may have changed. Views are rebuilt lazily after an invalidation.
+	 */
+	public DashboardView getView(String clientIp) {
+		String viewKey = clientIp == null || inventory.findSlaves().contains(clientIp) ? String.valueOf(clientIp)
+				: REMOTE_VIEW;
+		long current = generation.get();
+		DashboardView view = views.get(viewKey);
+		if (view != null && view.getGeneration() == current) {
+			return view;
+		}
+		List<ModelDevice> devices = this.inventory.findAll().stream().filter(device -> !isBlacklisted(device.getId()))
+				.map(device -> getDeviceProperties(device, clientIp))
+				.collect(groupingBy(ModelDevice::isAndroid)).values().stream()
+				.flatMap(device -> device.stream().sorted(comparator))
+				.sorted((e1, e2) -> e1.getOwnedBy().compareTo(e2.getOwnedBy()))
+				.collect(Collectors.toList());
+		/* tagged with the generation read before building, a change during the build only forces a rebuild */
+		view = new DashboardView(Collections.unmodifiableList(devices),
+				String.format("\"%s-%s-%s\"", epoch, Long.toHexString(current), Integer.toHexString(viewKey.hashCode())),
+				current);
+		views.put(viewKey, view);
+		return view;
+	}
+
+	/**
+	 * @return card of the device or <code>null</code> when it is gone or
+	 *         blacklisted
+	 */
+	public ModelDevice getDevice(@NonNull DeviceKey key, String clientIp) {
+		Optional<Device> device = inventory.find(key.getDeviceId(), key.getSlaveIp());
+		if (!device.isPresent() || isBlacklisted(key.getDeviceId())) {
+			return null;
+		}
+		return getDeviceProperties(device.get(), clientIp);
+	}
+
+	private boolean isBlacklisted(String deviceId) {
+		return blacklisted.contains(deviceId);
+	}
+
+	private void invalidate() {
+		generation.incrementAndGet();
+	}
+
+	private void invalidateAll() {
+		invalidate();
+		views.clear();
+		for (Runnable listener : invalidationListeners) {
+			try {
+				listener.run();
+			} catch (Exception ex) {
+				log.error("{} occurred in dashboard invalidation listener with message '{}'", ex.getClass().getName(),
+						ex.getMessage());
+			}
+		}
+	}
+
+	private String getMajorVersion(String version) {
+		return (version.contains(".") ? version.substring(0, version.indexOf('.')) : version).trim();
+	}
+
+	private ModelDevice getDeviceProperties(@NonNull Device device, String clientIp) {
+
+		ModelDevice mDevice = new ModelDevice();
+
+		try {
+			mDevice.setDeviceId(device.getId());
+			mDevice.setIp(device.getSlaveIp());
+			mDevice.setConnected(device.isConnected());
+			mDevice.setDeviceType(getDeviceType(device));
+			mDevice.setSdkVersion(device.getDeviceInformation().getSdkVersion());
+			mDevice.setManufacturer(capitalize(device.getDeviceInformation().getManufacturer()));
+			mDevice.setMarketName(getDisplayName(device));
+			mDevice.setImageUrl(getPhoneImage(device));
+			mDevice.setBrowserVersion(device.getDeviceInformation().getBrowserVersion());
+			mDevice.setFree(device.isFree());
+			mDevice.setAndroid(device.getDeviceInformation().isAndroid());
+			mDevice.setAllocatedTo(device.getLastAllocatedTo());
+			mDevice.setUrl(getUrl(device, clientIp));
+			mDevice.setOwnedBy(teamOwnership.get().getOwner(device.getId()).toUpperCase());
+			HeldBy sessionHeldBy = device.getStfSessionHeldBy();
+			if (sessionHeldBy != null) {
+				mDevice.setStfSessionHeldBy(sessionHeldBy);
+			}
+			mDevice.setModel(getClippedName(
+					(device.getDeviceInformation().getModel() == null) ? device.getDeviceInformation().getMarketName()
+							: device.getDeviceInformation().getModel(),
+					15));
+		} catch (Exception e) {
+			log.error(String.format("'%s' occurred while parsing device properties(%s, %s) with message: '%s'",
+					e.getClass(), device,
+					clientIp, e.getMessage()), e);
+		}
+		return mDevice;
+	}
+
+	private String capitalize(String str) {
+		return str == null ? null : str.substring(0, 1).toUpperCase() + str.substring(1);
+	}
+
+	private String getDeviceType(@NonNull Device device) {
+		return device.getDeviceInformation().isRealDevice() ? "Real Device"
+				: (device.getDeviceInformation().isAndroid() ? "Emulator" : "Simulator");
+	}
+
+	private String getPhoneImage(@NonNull Device device) {
+		String name = (device.getDeviceInformation().isAndroid() ? device.getDeviceInformation().getMarketName()
+				: device.getDeviceInformation().getModel()).replaceAll("[\\(\\)]", " ");
+		return phoneImageService.resolve(name);
+	}
+
+	private String getUrl(@NonNull Device device, String clientIp) {
+
+		if (!device.getDeviceInformation().isAndroid()) {
+			return "#";
+		}
+		return String.format("http://%s:%s/#!/control/%s",
+				clientIp == null || clientIp.equals(device.getSlaveIp()) ? "localhost" : device.getSlaveIp(), STF_PORT,
+				device.getDeviceInformation().getDeviceId());
+	}
+
+	private String getDisplayName(@NonNull Device device) {
+
+		String name = null;
+		try {
+			if (device.getDeviceInformation().getMarketName() != null
+					&& device.getDeviceInformation().getManufacturer() != null && device.getDeviceInformation()
+							.getMarketName().equals(device.getDeviceInformation().getManufacturer())) {
+				name = device.getDeviceInformation().getModel();
+			} else {
+				name = device.getDeviceInformation().getMarketName();
+			}
+		} catch (Exception e) {
+			name = device.getDeviceInformation().getModel();
+		}
+		return capitalize(name);
+	}
+}
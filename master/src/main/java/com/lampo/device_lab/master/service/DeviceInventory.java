@@ -0,0 +1,553 @@
+package com.lampo.device_lab.master.service;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.Striped;
+
+import com.lampo.device_lab.master.model.Device;
+import com.lampo.device_lab.master.model.DeviceInformation;
+import com.lampo.device_lab.master.model.DeviceKey;
+import com.lampo.device_lab.master.repos.IDeviceRepository;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.result.UpdateResult;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class DeviceInventory {
+
+	public static final String ANDROID = "android";
+	public static final String IOS = "ios";
+
+	private static final int LOCK_STRIPES = 64;
+	private static final int SLAVE_LOCK_STRIPES = 16;
+
+	@Autowired
+	private IDeviceRepository deviceRepository;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	private final Map<DeviceKey, Device> devices = new ConcurrentHashMap<>();
+
+	/* per-device locks, devices hashing to different stripes never contend */
+	private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+	private final Striped<Lock> slaveLocks = Striped.lock(SLAVE_LOCK_STRIPES);
+
+	/* secondary indexes, all keyed back into 'devices' */
+	private final Map<String, Set<DeviceKey>> bySlave = new ConcurrentHashMap<>();
+	private final Map<String, Set<DeviceKey>> byPlatform = new ConcurrentHashMap<>();
+	private final Set<DeviceKey> freeDevices = ConcurrentHashMap.newKeySet();
+
+	private final List<Runnable> freeDeviceListeners = new CopyOnWriteArrayList<>();
+	private final List<Consumer<DeviceKey>> changeListeners = new CopyOnWriteArrayList<>();
+
+	@PostConstruct
+	public void load() {
+		deviceRepository.findAll().forEach(this::index);
+		log.info("loaded '{}' devices from '{}' slaves into inventory", devices.size(), bySlave.size());
+	}
+
+	public Optional<Device> find(String deviceId, String slaveIp) {
+		if (deviceId == null || slaveIp == null) {
+			return Optional.empty();
+		}
+		return Optional.ofNullable(devices.get(new DeviceKey(slaveIp, deviceId)));
+	}
+
+	public Collection<Device> findAll() {
+		return new ArrayList<>(devices.values());
+	}
+
+	public Collection<Device> findBySlaveIp(String slaveIp) {
+		return resolve(slaveIp == null ? null : bySlave.get(slaveIp));
+	}
+
+	public Collection<String> findSlaves() {
+		return new HashSet<>(bySlave.keySet());
+	}
+
+	/**
+	 * returns the devices which are free and connected
+	 */
+	public Collection<Device> findFreeDevices() {
+		return resolve(freeDevices);
+	}
+
+	/**
+	 * returns the devices which are free and connected for the given platform
+	 *
+	 * @param platform {@link String} 'android' or 'ios', all platforms when blank
+	 */
+	public Collection<Device> findFreeDevices(String platform) {
+		Set<DeviceKey> keys = getPlatformKeys(platform);
+		if (keys == null) {
+			return findFreeDevices();
+		}
+		return resolve(freeDevices.stream().filter(keys::contains).collect(Collectors.toSet()));
+	}
+
+	public Collection<Device> findByPlatform(String platform) {
+		Set<DeviceKey> keys = getPlatformKeys(platform);
+		return keys == null ? findAll() : resolve(keys);
+	}
+
+	/**
+	 * writes the device through to the database and re-indexes it, callers pass a
+	 * {@link Device#copy()} so the indexed device stays untouched when the write
+	 * fails
+	 *
+	 * @param device {@link Device}
+	 * @return saved {@link Device}
+	 */
+	public Device save(@NonNull Device device) {
+		Lock lock = locks.get(DeviceKey.of(device));
+		lock.lock();
+		try {
+			Device saved = deviceRepository.save(device);
+			index(saved);
+			return saved;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void delete(@NonNull Device device) {
+		DeviceKey key = DeviceKey.of(device);
+		Lock lock = locks.get(key);
+		lock.lock();
+		try {
+			deviceRepository.delete(device);
+			deindex(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * marks every connected device of the slave disconnected with a single
+	 * update
+	 *
+	 * @param slaveIp {@link String}
+	 * @return number of devices marked disconnected
+	 */
+	public int disconnect(@NonNull String slaveIp) {
+		Lock slaveLock = slaveLocks.get(slaveIp);
+		slaveLock.lock();
+		try {
+			List<Device> connected = findBySlaveIp(slaveIp).stream().filter(Device::isConnected)
+					.collect(Collectors.toList());
+			if (connected.isEmpty()) {
+				return 0;
+			}
+			Date now = new Date();
+			mongoTemplate.updateMulti(query(where("slaveIp").is(slaveIp).and("isConnected").is(true)),
+					new Update().set("isConnected", false).set("lastModifiedTime", now), Device.class);
+			connected.forEach(device -> update(device.getId(), slaveIp, e -> {
+				if (e != null) {
+					Device copy = e.copy();
+					copy.setConnected(false);
+					copy.setLastModifiedTime(now);
+					index(copy);
+				}
+				return e != null;
+			}));
+			return connected.size();
+		} finally {
+			slaveLock.unlock();
+		}
+	}
+
+	/**
+	 * runs the given function on the device while holding the device's lock,
+	 * the device passed in is <code>null</code> when it is not in the inventory.
+	 * the function must not change the device, it saves a {@link Device#copy()}
+	 * instead
+	 *
+	 * @param deviceId {@link String}
+	 * @param slaveIp  {@link String}
+	 * @param function {@link Function}
+	 */
+	public <T> T update(@NonNull String deviceId, @NonNull String slaveIp, @NonNull Function<Device, T> function) {
+		DeviceKey key = new DeviceKey(slaveIp, deviceId);
+		Lock lock = locks.get(key);
+		lock.lock();
+		try {
+			return function.apply(devices.get(key));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * atomically flips the free flag of a free and connected device. The flag is
+	 * compared and set in memory under the device's lock and in the database
+	 * with a conditional update, so only one request can claim a device.
+	 *
+	 * @param deviceId {@link String}
+	 * @param slaveIp  {@link String}
+	 * @return <code>true</code> if the device was claimed by this call
+	 */
+	public boolean claim(@NonNull String deviceId, @NonNull String slaveIp) {
+		return update(deviceId, slaveIp, device -> {
+			if (device == null || !device.isFree() || !device.isConnected()) {
+				return false;
+			}
+			Date now = new Date();
+			UpdateResult result = mongoTemplate.updateFirst(
+					query(where("_id").is(device.get_id()).and("isFree").is(true)),
+					new Update().set("isFree", false).set("lastAllocationStart", now).unset("lastAllocationEnd"),
+					Device.class);
+			if (result.getModifiedCount() == 0) {
+				log.warn("device '{}' on slave '{}' is already claimed in the database, reloading it", deviceId,
+						slaveIp);
+				deviceRepository.findById(device.get_id()).ifPresent(this::index);
+				return false;
+			}
+			Device copy = device.copy();
+			copy.setFree(false);
+			copy.setLastAllocationStart(now);
+			copy.setLastAllocationEnd(null);
+			index(copy);
+			return true;
+		});
+	}
+
+	/**
+	 * reconciles the devices of a slave with the snapshot it reported. New,
+	 * changed and removed devices are written in a single bulk operation carrying
+	 * only the changed fields, nothing is written when the snapshot matches the
+	 * inventory.
+	 *
+	 * @param slaveIp  {@link String}
+	 * @param snapshot all devices currently connected to the slave
+	 */
+	public void sync(@NonNull String slaveIp, @NonNull Collection<DeviceInformation> snapshot) {
+		sync(slaveIp, snapshot, null);
+	}
+
+	/**
+	 * applies the reported devices and removals of a slave, devices which are not
+	 * mentioned are left as they are
+	 *
+	 * @param slaveIp    {@link String}
+	 * @param devices    added or changed devices
+	 * @param removedIds ids of devices no longer connected to the slave
+	 */
+	public void merge(@NonNull String slaveIp, @NonNull Collection<DeviceInformation> devices,
+			Collection<String> removedIds) {
+		sync(slaveIp, devices, removedIds == null ? Collections.emptySet() : removedIds);
+	}
+
+	private void sync(String slaveIp, Collection<DeviceInformation> snapshot, Collection<String> removedIds) {
+		Lock slaveLock = slaveLocks.get(slaveIp);
+		slaveLock.lock();
+		try {
+			Map<String, DeviceInformation> reported = new LinkedHashMap<>();
+			snapshot.stream().filter(e -> e != null && e.getDeviceId() != null)
+					.forEach(e -> reported.put(e.getDeviceId(), e));
+
+			Date now = new Date();
+			BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, Device.class);
+			Map<Integer, Device> added = new HashMap<>();
+			List<DeviceInformation> changed = new ArrayList<>();
+			List<Device> removed = new ArrayList<>();
+			int count = 0;
+
+			for (DeviceInformation info : reported.values()) {
+				Device device = devices.get(new DeviceKey(slaveIp, info.getDeviceId()));
+				if (device == null) {
+					Device created = new Device();
+					created.set_id(new ObjectId().toHexString());
+					created.setId(info.getDeviceId());
+					created.setSlaveIp(slaveIp);
+					created.setDeviceInformation(info);
+					created.setConnected(true);
+					created.setFree(true);
+					created.setLastModifiedTime(now);
+					ops.upsert(query(where("id").is(info.getDeviceId()).and("slaveIp").is(slaveIp)),
+							new Update().set("deviceInformation", info).set("isConnected", true)
+									.set("lastModifiedTime", now).setOnInsert("_id", new ObjectId(created.get_id()))
+									.setOnInsert("isFree", true));
+					added.put(count++, created);
+					continue;
+				}
+				boolean infoChanged = !info.equals(device.getDeviceInformation());
+				if (infoChanged || !device.isConnected()) {
+					Update update = new Update().set("lastModifiedTime", now);
+					if (infoChanged) {
+						update.set("deviceInformation", info);
+					}
+					if (!device.isConnected()) {
+						update.set("isConnected", true);
+					}
+					ops.updateOne(query(where("_id").is(device.get_id())), update);
+					changed.add(info);
+					count++;
+				}
+			}
+			for (Device device : findBySlaveIp(slaveIp)) {
+				if (removedIds == null ? !reported.containsKey(device.getId())
+						: removedIds.contains(device.getId()) && !reported.containsKey(device.getId())) {
+					ops.remove(query(where("_id").is(device.get_id())));
+					removed.add(device);
+					count++;
+				}
+			}
+
+			if (count == 0) {
+				log.trace("devices on slave '{}' are unchanged", slaveIp);
+				return;
+			}
+
+			BulkWriteResult result;
+			try {
+				result = ops.execute();
+			} catch (Exception ex) {
+				log.error(String.format("'%s' occurred while syncing devices of slave '%s', reloading them",
+						ex.getClass().getName(), slaveIp), ex);
+				reload(slaveIp);
+				return;
+			}
+
+			Set<Integer> inserted = result.getUpserts().stream().map(BulkWriteUpsert::getIndex)
+					.collect(Collectors.toSet());
+			added.forEach((index, device) -> {
+				if (inserted.contains(index)) {
+					update(device.getId(), slaveIp, e -> {
+						index(device);
+						return true;
+					});
+				} else {
+					/* the document existed without being indexed, take it as stored */
+					reload(device.getId(), slaveIp);
+				}
+			});
+			changed.forEach(info -> update(info.getDeviceId(), slaveIp, device -> {
+				if (device != null) {
+					Device copy = device.copy();
+					copy.setDeviceInformation(info);
+					copy.setConnected(true);
+					copy.setLastModifiedTime(now);
+					index(copy);
+				}
+				return device != null;
+			}));
+			removed.forEach(device -> update(device.getId(), slaveIp, e -> {
+				deindex(DeviceKey.of(device));
+				return true;
+			}));
+
+			log.debug("synced slave '{}' ::: added => {}, changed => {}, removed => {}", slaveIp, added.size(),
+					changed.size(), removed.size());
+		} finally {
+			slaveLock.unlock();
+		}
+	}
+
+	/**
+	 * releases a claim which was not turned into a session
+	 *
+	 * @param deviceId {@link String}
+	 * @param slaveIp  {@link String}
+	 */
+	public void unclaim(@NonNull String deviceId, @NonNull String slaveIp) {
+		update(deviceId, slaveIp, device -> {
+			if (device == null || device.isFree()) {
+				return false;
+			}
+			Device copy = device.copy();
+			copy.setFree(true);
+			copy.setLastAllocationEnd(new Date());
+			save(copy);
+			return true;
+		});
+	}
+
+	/**
+	 * registers a listener which is called whenever a device becomes free and
+	 * connected. Listeners run on the updating thread and must not block.
+	 *
+	 * @param listener {@link Runnable}
+	 */
+	public void addFreeDeviceListener(@NonNull Runnable listener) {
+		freeDeviceListeners.add(listener);
+	}
+
+	/**
+	 * registers a listener which is called with the key of every device that was
+	 * saved, claimed, synced or removed. Listeners run on the updating thread and
+	 * must not block.
+	 *
+	 * @param listener {@link Consumer}
+	 */
+	public void addChangeListener(@NonNull Consumer<DeviceKey> listener) {
+		changeListeners.add(listener);
+	}
+
+	private void reload(String slaveIp) {
+		findBySlaveIp(slaveIp).forEach(device -> deindex(DeviceKey.of(device)));
+		mongoTemplate.find(query(where("slaveIp").is(slaveIp)), Device.class).forEach(this::index);
+	}
+
+	private void reload(String deviceId, String slaveIp) {
+		Device device = mongoTemplate.findOne(query(where("id").is(deviceId).and("slaveIp").is(slaveIp)),
+				Device.class);
+		if (device != null) {
+			update(deviceId, slaveIp, e -> {
+				index(device);
+				return true;
+			});
+		}
+	}
+
+	private Set<DeviceKey> getPlatformKeys(String platform) {
+		if (platform == null || platform.trim().isEmpty()) {
+			return null;
+		}
+		return byPlatform.getOrDefault(platform.trim().toLowerCase(), Collections.emptySet());
+	}
+
+	private List<Device> resolve(Collection<DeviceKey> keys) {
+		if (keys == null) {
+			return new ArrayList<>();
+		}
+		return keys.stream().map(devices::get).filter(Objects::nonNull).collect(Collectors.toList());
+	}
+
+	private void index(Device device) {
+		DeviceKey key = DeviceKey.of(device);
+		devices.put(key, device);
+		if (device.getSlaveIp() != null) {
+			bySlave.compute(device.getSlaveIp(), (ip, keys) -> {
+				Set<DeviceKey> set = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+				set.add(key);
+				return set;
+			});
+		}
+		DeviceInformation info = device.getDeviceInformation();
+		String platform = info == null ? null : (info.isAndroid() ? ANDROID : IOS);
+		byPlatform.forEach((name, keys) -> {
+			if (!name.equals(platform)) {
+				keys.remove(key);
+			}
+		});
+		if (platform != null) {
+			byPlatform.computeIfAbsent(platform, e -> ConcurrentHashMap.newKeySet()).add(key);
+		}
+		if (device.isFree() && device.isConnected()) {
+			if (freeDevices.add(key)) {
+				freeDeviceListeners.forEach(Runnable::run);
+			}
+		} else {
+			freeDevices.remove(key);
+		}
+		notifyChange(key);
+	}
+
+	private void deindex(DeviceKey key) {
+		devices.remove(key);
+		if (key.getSlaveIp() != null) {
+			bySlave.computeIfPresent(key.getSlaveIp(), (ip, keys) -> {
+				keys.remove(key);
+				return keys.isEmpty() ? null : keys;
+			});
+		}
+		byPlatform.values().forEach(keys -> keys.remove(key));
+		freeDevices.remove(key);
+		notifyChange(key);
+	}
+
+	private void notifyChange(DeviceKey key) {
+		for (Consumer<DeviceKey> listener : changeListeners) {
+			try {
+				listener.accept(key);
+			} catch (Exception ex) {
+				log.error("{} occurred in device change listener with message '{}'", ex.getClass().getName(),
+						ex.getMessage());
+			}
+		}
+	}
+}
@@ -1,31 +1,56 @@
 package com.lampo.device_lab.master.service;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.imageio.ImageIO;
 
 import org.bson.BsonBinarySubType;
 import org.bson.types.Binary;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
-import org.springframework.util.FileCopyUtils;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
 
+import com.lampo.device_lab.master.model.PhoneImage;
 import com.lampo.device_lab.master.model.Photo;
 import com.lampo.device_lab.master.repos.IPhoneImageRepository;
 
 import lombok.NonNull;
-import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * MIT License <br/>
@@ -75,33 +100,95 @@ import lombok.SneakyThrows;
  * entire risk as to the quality and performance of the software is with you.
  *
  */
+@Slf4j
 @Service
 public class PhoneImageService {
 
 	@Autowired
 	private ApplicationContext context;
 
+	public static final String DEFAULT_PHOTO = "default";
+
+	private static final int MAX_RESOLUTIONS = 1024;
+	private static final int MIN_THUMBNAIL_WIDTH = 32;
+	private static final int MAX_THUMBNAIL_WIDTH = 1024;
+	private static final int SEED_THREADS = 4;
+	private static final String SEED_RESOURCES = "classpath:static/images/phones/*.png";
+
 	@Autowired
 	private IPhoneImageRepository imageRepo;
 
-	private List<String> phoneImages = new ArrayList<>();
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Value("${custom.photos.cache_size_in_bytes:33554432}")
+	private long maxCachedBytes;
+
+	private volatile List<String> phoneImages = Collections.emptyList();
+
+	private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
 
+	/* device names to the name of the photo shown for them, most recently used last */
+	private final Map<String, String> resolutions = Collections
+			.synchronizedMap(new LinkedHashMap<String, String>(64, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Entry<String, String> eldest) {
+					return size() > MAX_RESOLUTIONS;
+				}
+			});
+
+	/* served images and thumbnails, evicted least recently used first once over the byte budget */
+	private final LinkedHashMap<String, PhoneImage> images = new LinkedHashMap<>(64, 0.75f, true);
+	private long cachedBytes;
+
+	/**
+	 * stores the bundled phone images in the background so the master serves
+	 * traffic right away. Images whose hash is already stored are skipped and
+	 * photos stored under the same name are never overwritten.
+	 */
 	@PostConstruct
-	@SneakyThrows
-	private void uploadDefaultImages() {
-		Arrays.stream(context.getResources("classpath:static/images/phones/*.png"))
-                .forEach(e -> {
-                    File file = new File(e.getFilename());
-                    try (InputStream stream = e.getInputStream(); OutputStream out = new FileOutputStream(file)) {
-                        FileCopyUtils.copy(stream, out);
-                        addPhoto(file);
-                        file.delete();
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
-                    phoneImages.add(e.getFilename().replace(".png", ""));
-                });
+	public void seedDefaultImages() {
+		Resource[] resources;
+		try {
+			resources = context.getResources(SEED_RESOURCES);
+		} catch (IOException ex) {
+			log.error("{} occurred while listing bundled phone images with message '{}'", ex.getClass().getName(),
+					ex.getMessage());
+			return;
+		}
+		phoneImages = Collections.unmodifiableList(Arrays.stream(resources).map(Resource::getFilename)
+				.filter(e -> e != null).map(e -> e.replace(".png", "")).collect(Collectors.toList()));
 
+		ExecutorService seeder = Executors.newFixedThreadPool(SEED_THREADS, r -> {
+			Thread thread = new Thread(r, "phone-image-seeder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long start = System.currentTimeMillis();
+		CompletableFuture.supplyAsync(this::findStoredPhotos, seeder).thenCompose(stored -> {
+			AtomicInteger inserted = new AtomicInteger();
+			CompletableFuture<?>[] tasks = Arrays.stream(resources).map(e -> CompletableFuture.runAsync(() -> {
+				if (seed(e, stored)) {
+					inserted.incrementAndGet();
+				}
+			}, seeder)).toArray(CompletableFuture[]::new);
+			return CompletableFuture.allOf(tasks).thenApply(e -> inserted.get());
+		}).whenComplete((inserted, ex) -> {
+			seeder.shutdown();
+			if (ex != null) {
+				log.error("{} occurred while seeding phone images with message '{}'", ex.getClass().getName(),
+						ex.getMessage());
+				return;
+			}
+			log.info("seeded '{}' of '{}' bundled phone images in '{} ms'", inserted, resources.length,
+					System.currentTimeMillis() - start);
+			if (inserted > 0) {
+				photosChanged();
+			}
+		});
 	}
 
 	public Collection<Photo> getPhotoByName(@NonNull String name) {
@@ -117,26 +204,237 @@ public class PhoneImageService {
 		return photos;
 	}
 
+	/**
+	 * resolves the photo shown for a device name the way
+	 * {@link #getPhotoByName(String)} does, without loading any image bytes
+	 *
+	 * @param name {@link String} market name or model of the device
+	 * @return name of the matching photo, {@value #DEFAULT_PHOTO} when none
+	 *         matches
+	 */
+	public String resolve(@NonNull String name) {
+		String resolved = resolutions.get(name);
+		if (resolved != null) {
+			return resolved;
+		}
+		resolved = findPhotoName(name);
+		if (resolved == null) {
+			resolved = findPhotoName(name.split("\\s+")[0]);
+		}
+		if (resolved == null) {
+			resolved = DEFAULT_PHOTO;
+		}
+		resolutions.put(name, resolved);
+		return resolved;
+	}
+
+	/**
+	 * @param name  {@link String} exact name of the photo
+	 * @param width {@link Integer} width of the thumbnail, rounded up to a
+	 *              multiple of {@value #MIN_THUMBNAIL_WIDTH}. The original is
+	 *              returned when <code>null</code> or when it is not wider.
+	 * @return {@link PhoneImage} or <code>null</code> when there is no such photo
+	 */
+	public PhoneImage getImage(@NonNull String name, Integer width) {
+		Integer thumbnailWidth = width == null ? null
+				: Math.min(MAX_THUMBNAIL_WIDTH, Math.max(MIN_THUMBNAIL_WIDTH,
+						(width + MIN_THUMBNAIL_WIDTH - 1) / MIN_THUMBNAIL_WIDTH * MIN_THUMBNAIL_WIDTH));
+		String key = thumbnailWidth == null ? name : name + "@" + thumbnailWidth;
+		synchronized (images) {
+			PhoneImage image = images.get(key);
+			if (image != null) {
+				return image;
+			}
+		}
+
+		Photo photo = mongoTemplate.findOne(query(where("name").is(name)), Photo.class);
+		if (photo == null || photo.getImage() == null) {
+			return null;
+		}
+		byte[] bytes = photo.getImage().getData();
+		String contentType = getContentType(bytes);
+		if (thumbnailWidth != null) {
+			byte[] thumbnail = resize(name, bytes, thumbnailWidth);
+			if (thumbnail != null) {
+				bytes = thumbnail;
+				contentType = "image/png";
+			}
+		}
+		PhoneImage image = new PhoneImage(bytes, contentType, DigestUtils.md5DigestAsHex(bytes));
+		cache(key, image);
+		return image;
+	}
+
 	public Collection<String> findByName(@NonNull String name) {
 		return phoneImages.stream().filter(e -> e.toLowerCase().contains(name.trim().toLowerCase()))
 				.collect(Collectors.toList());
 	}
 
-	public Photo addPhoto(@NonNull File file) throws IOException {
-		String name = file.getName().substring(0, file.getName().lastIndexOf('.')).replaceAll("[\\(\\)]", " ");
-		Collection<Photo> photo = getPhotoByName(name, false);
-		Photo _photo = null;
-		if (photo.isEmpty()) {
-			_photo = new Photo();
-			_photo.setName(name);
-			_photo.setImage(new Binary(BsonBinarySubType.BINARY, Files.readAllBytes(file.toPath())));
-		} else {
-			_photo = photo.stream().findFirst().get();
+	public Photo addPhoto(@NonNull Photo photo) {
+		if (photo.getHash() == null && photo.getImage() != null) {
+			photo.setHash(DigestUtils.md5DigestAsHex(photo.getImage().getData()));
 		}
-		return addPhoto(_photo);
+		Photo saved = imageRepo.save(photo);
+		photosChanged();
+		return saved;
 	}
 
-	public Photo addPhoto(@NonNull Photo photo) {
-		return imageRepo.save(photo);
+	/**
+	 * registers a listener which is called after every saved photo
+	 *
+	 * @param listener {@link Runnable}
+	 */
+	public void addChangeListener(@NonNull Runnable listener) {
+		changeListeners.add(listener);
+	}
+
+	private void photosChanged() {
+		resolutions.clear();
+		synchronized (images) {
+			images.clear();
+			cachedBytes = 0;
+		}
+		for (Runnable listener : changeListeners) {
+			try {
+				listener.run();
+			} catch (Exception ex) {
+				log.error("{} occurred in photo change listener with message '{}'", ex.getClass().getName(),
+						ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return lower cased names and hashes of the stored photos, the hash of
+	 *         photos stored before hashes were kept is computed once and written
+	 *         back
+	 */
+	private StoredPhotos findStoredPhotos() {
+		Query query = new Query();
+		query.fields().include("name").include("hash");
+		Set<String> names = new HashSet<>();
+		Set<String> hashes = ConcurrentHashMap.newKeySet();
+		for (Photo photo : mongoTemplate.find(query, Photo.class)) {
+			if (photo.getName() == null) {
+				continue;
+			}
+			String hash = photo.getHash();
+			if (hash == null) {
+				Photo stored = mongoTemplate.findById(photo.getId(), Photo.class);
+				if (stored == null || stored.getImage() == null) {
+					continue;
+				}
+				hash = DigestUtils.md5DigestAsHex(stored.getImage().getData());
+				mongoTemplate.updateFirst(query(where("_id").is(photo.getId())), new Update().set("hash", hash),
+						Photo.class);
+			}
+			names.add(photo.getName().toLowerCase(Locale.ROOT));
+			hashes.add(hash);
+		}
+		return new StoredPhotos(names, hashes);
+	}
+
+	private boolean seed(Resource resource, StoredPhotos stored) {
+		String filename = resource.getFilename();
+		if (filename == null) {
+			return false;
+		}
+		String name = filename.substring(0, filename.lastIndexOf('.')).replaceAll("[\\(\\)]", " ");
+		try (InputStream stream = resource.getInputStream()) {
+			byte[] bytes = StreamUtils.copyToByteArray(stream);
+			String hash = DigestUtils.md5DigestAsHex(bytes);
+			if (stored.hashes.contains(hash) || stored.names.contains(name.toLowerCase(Locale.ROOT))) {
+				return false;
+			}
+			Photo photo = new Photo();
+			photo.setName(name);
+			photo.setHash(hash);
+			photo.setImage(new Binary(BsonBinarySubType.BINARY, bytes));
+			imageRepo.save(photo);
+			stored.hashes.add(hash);
+			return true;
+		} catch (Exception ex) {
+			log.error("{} occurred while seeding phone image '{}' with message '{}'", ex.getClass().getName(),
+					filename, ex.getMessage());
+			return false;
+		}
+	}
+
+	private String findPhotoName(String name) {
+		Query query = query(where("name").regex(name, "i")).limit(1);
+		query.fields().include("name");
+		try {
+			Photo photo = mongoTemplate.findOne(query, Photo.class);
+			return photo == null ? null : photo.getName();
+		} catch (Exception ex) {
+			log.warn("{} occurred while resolving photo of '{}' with message '{}'", ex.getClass().getName(), name,
+					ex.getMessage());
+			return null;
+		}
+	}
+
+	private void cache(String key, PhoneImage image) {
+		if (image.getBytes().length > maxCachedBytes) {
+			return;
+		}
+		synchronized (images) {
+			PhoneImage previous = images.put(key, image);
+			cachedBytes += image.getBytes().length - (previous == null ? 0 : previous.getBytes().length);
+			Iterator<PhoneImage> eldest = images.values().iterator();
+			while (cachedBytes > maxCachedBytes && eldest.hasNext()) {
+				cachedBytes -= eldest.next().getBytes().length;
+				eldest.remove();
+			}
+		}
+	}
+
+	private byte[] resize(String name, byte[] bytes, int width) {
+		try {
+			BufferedImage source = ImageIO.read(new ByteArrayInputStream(bytes));
+			if (source == null || source.getWidth() <= width) {
+				return null;
+			}
+			int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+			BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D graphics = target.createGraphics();
+			try {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				graphics.drawImage(source, 0, 0, width, height, null);
+			} finally {
+				graphics.dispose();
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(target, "png", out);
+			return out.toByteArray();
+		} catch (IOException | RuntimeException ex) {
+			log.warn("{} occurred while resizing photo '{}' with message '{}'", ex.getClass().getName(), name,
+					ex.getMessage());
+			return null;
+		}
+	}
+
+	private static String getContentType(byte[] bytes) {
+		if (bytes.length > 3 && (bytes[0] & 0xff) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G') {
+			return "image/png";
+		}
+		if (bytes.length > 2 && (bytes[0] & 0xff) == 0xff && (bytes[1] & 0xff) == 0xd8) {
+			return "image/jpeg";
+		}
+		if (bytes.length > 2 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F') {
+			return "image/gif";
+		}
+		return "application/octet-stream";
+	}
+
+	private static class StoredPhotos {
+
+		private final Set<String> names;
+		private final Set<String> hashes;
+
+		private StoredPhotos(Set<String> names, Set<String> hashes) {
+			this.names = names;
+			this.hashes = hashes;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -1,24 +1,30 @@
 package com.lampo.device_lab.master.service;
 
 import java.util.Collection;
-import java.util.Date;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
 
 import com.lampo.device_lab.master.model.Device;
 import com.lampo.device_lab.master.model.DeviceInformation;
 import com.lampo.device_lab.master.model.DeviceUpdateRequest;
+import com.lampo.device_lab.master.model.Header;
 import com.lampo.device_lab.master.model.HeldBy;
 import com.lampo.device_lab.master.model.OpenSTFHeldRequest;
-import com.lampo.device_lab.master.repos.IDeviceRepository;
 
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
@@ -75,25 +81,113 @@ import lombok.extern.slf4j.Slf4j;
 @Component
 public class QueueMessageProcessor {
 
+	private static final long RESYNC_RETRY_IN_MSEC = TimeUnit.SECONDS.toMillis(30);
+
+	@Autowired
+	private DeviceInventory inventory;
+
+	@Autowired
+	private SlaveLeaseService leaseService;
+
+	@Autowired
+	private RestTemplate restTemplate;
+
 	@Autowired
-	private IDeviceRepository deviceRepo;
+	@Qualifier("threadPoolTaskExecutor")
+	private Executor executor;
+
+	@Value("${slave.port}")
+	private int slavePort;
+
+	@Value("${slave.auth_token}")
+	private String slaveAuthToken;
+
+	private final Map<String, SyncState> syncStates = new ConcurrentHashMap<>();
 
 	@RabbitListener(queues = { "devices" })
 	public void process(@NonNull DeviceUpdateRequest request) {
 
 		log.debug("received message from queue => {}", request);
 
+		boolean revived = leaseService.renew(request.getIp());
+
 		Collection<DeviceInformation> devices = Stream.of(request.getAndroidDevices(), request.getIosDevices())
 				.filter(Objects::nonNull).flatMap(Collection::stream).collect(Collectors.toList());
 
-		devices.stream().parallel().forEach(e -> deviceRepo.save(getDevice(request, e)));
+		if (request.getSequence() == null) {
+			inventory.sync(request.getIp(), devices);
+			return;
+		}
 
-		List<String> connectedDevices = devices.stream().map(DeviceInformation::getDeviceId)
-				.collect(Collectors.toList());
+		SyncState state = syncStates.computeIfAbsent(request.getIp(), e -> new SyncState());
+		synchronized (state) {
+			if (request.isFullSnapshot()) {
+				inventory.sync(request.getIp(), devices);
+				state.accept(request);
+				return;
+			}
+			if (!Objects.equals(request.getEpoch(), state.epoch) || request.getSequence() > state.sequence + 1) {
+				log.info("slave '{}' ::: missed sync messages, expected '{} # {}' but received '{} # {}'",
+						request.getIp(), state.epoch, state.sequence + 1, request.getEpoch(), request.getSequence());
+				requestResync(request.getIp(), state);
+				return;
+			}
+			if (request.getSequence() <= state.sequence) {
+				log.debug("slave '{}' ::: ignoring duplicate sync message '{}'", request.getIp(),
+						request.getSequence());
+				return;
+			}
+			if (revived) {
+				/* devices were marked disconnected while the lease was expired, only a snapshot reconnects them */
+				state.snapshotRequired = true;
+				state.resyncRequestedAt = 0;
+			}
+			if (state.snapshotRequired) {
+				/* re-requested on every message until the snapshot arrives, throttled by requestResync */
+				requestResync(request.getIp(), state);
+			}
+			if (!devices.isEmpty() || (request.getRemovedDevices() != null && !request.getRemovedDevices().isEmpty())) {
+				if (state.snapshotRequired) {
+					/* the inventory still holds devices which may have vanished, touch only the reported ones */
+					inventory.merge(request.getIp(), devices, request.getRemovedDevices());
+				} else {
+					inventory.sync(request.getIp(), applyDelta(request, devices));
+				}
+			}
+			state.accept(request);
+		}
+	}
 
-		deviceRepo.findBySlaveIp(request.getIp()).stream().filter(e -> !connectedDevices.contains(e.getId()))
-				.forEach(deviceRepo::delete);
+	private Collection<DeviceInformation> applyDelta(DeviceUpdateRequest request,
+			Collection<DeviceInformation> devices) {
+		Map<String, DeviceInformation> current = new LinkedHashMap<>();
+		inventory.findBySlaveIp(request.getIp()).stream().map(Device::getDeviceInformation).filter(Objects::nonNull)
+				.forEach(e -> current.put(e.getDeviceId(), e));
+		if (request.getRemovedDevices() != null) {
+			request.getRemovedDevices().forEach(current::remove);
+		}
+		devices.forEach(e -> current.put(e.getDeviceId(), e));
+		return current.values();
+	}
 
+	private void requestResync(String slaveIp, SyncState state) {
+		long now = System.currentTimeMillis();
+		if (now - state.resyncRequestedAt < RESYNC_RETRY_IN_MSEC) {
+			return;
+		}
+		state.resyncRequestedAt = now;
+		String url = String.format("http://%s:%s/device/resync", slaveIp, slavePort);
+		executor.execute(() -> {
+			try {
+				HttpHeaders headers = new HttpHeaders();
+				headers.set(Header.AUTH.toString(), slaveAuthToken);
+				restTemplate.postForObject(url, new HttpEntity<>(headers), Void.class);
+				log.info("slave '{}' ::: requested full device snapshot", slaveIp);
+			} catch (Exception ex) {
+				log.error("{} occurred while requesting resync from slave '{}' with message '{}'",
+						ex.getClass().getName(), slaveIp, ex.getMessage());
+			}
+		});
 	}
 
 	@RabbitListener(queues = { "stf-devices" })
@@ -102,13 +196,22 @@ public class QueueMessageProcessor {
 		log.debug("received message from queue => {}", request);
 		String ip = request.getIp();
 		Map<String, HeldBy> devices = request.getDevices();
-		deviceRepo.findBySlaveIp(ip).stream()
-				.map(device -> setHeldBy(devices, device))
-				.filter(Objects::nonNull)
-				.forEach(deviceRepo::save);
+		inventory.findBySlaveIp(ip).forEach(e -> inventory.update(e.getId(), ip, device -> {
+			if (device == null) {
+				return false;
+			}
+			HeldBy heldBy = getHeldBy(devices, device);
+			if (Objects.equals(heldBy, device.getStfSessionHeldBy())) {
+				return false;
+			}
+			Device copy = device.copy();
+			copy.setStfSessionHeldBy(heldBy);
+			inventory.save(copy);
+			return true;
+		}));
 	}
 
-	private Device setHeldBy(Map<String, HeldBy> devices, Device device) {
+	private HeldBy getHeldBy(Map<String, HeldBy> devices, Device device) {
 		HeldBy heldBy = null;
 		if (devices != null && devices.containsKey(device.getId())) {
 			heldBy = devices.get(device.getId());
@@ -122,25 +225,24 @@ public class QueueMessageProcessor {
 			}
 			heldBy.setName(name.toUpperCase());
 		}
-		device.setStfSessionHeldBy(heldBy);
-		return device;
+		return heldBy;
 	}
 
-	private Device getDevice(DeviceUpdateRequest request, DeviceInformation e) {
-		Optional<Device> oDevice = deviceRepo.findById(e.getDeviceId(), request.getIp());
-		Device device = null;
-		if (!oDevice.isPresent()) {
-			device = new Device();
-			device.setId(e.getDeviceId());
-			device.setFree(true);
-		} else {
-			device = oDevice.get();
+	private static class SyncState {
+
+		private String epoch;
+		private long sequence;
+		private long resyncRequestedAt;
+		private boolean snapshotRequired;
+
+		private void accept(DeviceUpdateRequest request) {
+			this.epoch = request.getEpoch();
+			this.sequence = request.getSequence();
+			if (request.isFullSnapshot()) {
+				this.snapshotRequired = false;
+				this.resyncRequestedAt = 0;
+			}
 		}
-		device.setSlaveIp(request.getIp());
-		device.setConnected(true);
-		device.setDeviceInformation(e);
-		device.setLastModifiedTime(new Date());
-		return device;
 	}
 
-}
\ No newline at end of file
+}
@@ -1,27 +1,30 @@
 package com.lampo.device_lab.master.service;
 
-import static com.lampo.device_lab.master.utils.CommonUtilities.getMatches;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toSet;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import com.lampo.device_lab.master.grid.GridSetupService;
-import com.lampo.device_lab.master.model.DeviceRestrictionRequest;
-import com.lampo.device_lab.master.repos.IDeviceRepository;
+import com.lampo.device_lab.master.grid.CustomGridRegistry;
+import com.lampo.device_lab.master.model.Device;
+import com.lampo.device_lab.master.model.GridNode;
 
-import lombok.NonNull;
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -76,15 +79,14 @@ import lombok.extern.slf4j.Slf4j;
 @Component
 public class SessionReaper {
 
-	private static final int SOCKET_TIME_OUT_IN_MSEC = 2000;
-	private static final String GRID_STATUS_URL = String.format("http://127.0.0.1:%s/grid/console",
-			GridSetupService.GRID_PORT);
+	/* a claimed device shows up busy on the grid only once its session is created */
+	private static final long CLAIM_GRACE_IN_MSEC = 60_000;
 
-	@Value("${slave.port}")
-	private int slavePort;
+	private static final String RELEASE_LONG_RUNNING = "released_long_running";
+	private static final String RELEASE_DEAD = "released_dead";
 
 	@Autowired
-	private IDeviceRepository deviceRepo;
+	private DeviceInventory inventory;
 
 	@Autowired
 	private AllocationService allocationService;
@@ -92,117 +94,131 @@ public class SessionReaper {
 	@Value("${custom.max_session_duration}")
 	private int maxSessionDurationInSec;
 
-	@Value("${custom.maintenance.enabled}")
-	private boolean isMaintenanceEnabled;
-
 	@Value("${custom.reap_sessions.enabled}")
 	private boolean isSessionReapEnabled;
 
-	@Scheduled(cron = "${custom.cron.reap_unreachable_slaves}")
-	public void reapUnreacheableSlaves() {
-		if (!isMaintenanceEnabled) {
-			log.debug("'custom.maintenance.enabled' is set to false");
-			return;
-		}
-		deviceRepo.findAll().stream().parallel().forEach(e -> {
-			if (e.getSlaveIp() != null && !isReachable(e.getSlaveIp(), slavePort, SOCKET_TIME_OUT_IN_MSEC)) {
-				log.debug("reaping unreacheable device '{}' on host '{}'", e.getId(), e.getSlaveIp());
-				deviceRepo.delete(e);
-			}
-		});
-	}
+	private final AtomicLong runs = new AtomicLong();
+	private final Map<String, AtomicLong> totals = new ConcurrentHashMap<>();
+	private volatile Map<String, Object> lastRun = Collections.emptyMap();
 
 	public void reapAll() {
-		this.reapUnreacheableSlaves();
-		this.reapDeadSessions();
-		this.reapLongRunningSessions();
+		reconcile(false);
 	}
 
-	@Scheduled(cron = "${custom.cron.reap_long_running_sessions}")
-	public void reapLongRunningSessions() {
-		if (!isSessionReapEnabled) {
-			log.debug("'custom.maintenance.enabled' is set to false");
-			return;
-		}
-		deviceRepo
-				.findAll().stream().parallel().filter(
-						e -> !e.isFree() && e.getLastAllocationStart() != null && e.getLastAllocationEnd() == null
-								&& (System.currentTimeMillis()
-										- e.getLastAllocationStart().getTime() >= maxSessionDurationInSec * 1000))
-				.forEach(e -> {
-					try {
-						log.info("reaping long running session on device '{}' ::: running since '{}'", e);
-						allocationService.unallocateDevice(new DeviceRestrictionRequest(e.getId(), e.getSlaveIp()),
-								null);
-					} catch (Throwable ex) {
-						log.error("{} occurred when calling reapLongRunningSessions() with message: '{}'",
-								ex.getClass().getName(), ex.getMessage());
-						ex.printStackTrace();
-					}
-				});
-	}
-
-	@Scheduled(cron = "${custom.cron.reap_dead_sessions}")
-	@SneakyThrows
-	public void reapDeadSessions() {
-		reapDeadSessions(false);
+	@Scheduled(fixedDelayString = "${custom.reconcile.interval_in_msec:15000}",
+			initialDelayString = "${custom.reconcile.interval_in_msec:15000}")
+	public void reconcile() {
+		reconcile(false);
 	}
 
 	public void reapDeadSessions(boolean overrideFlag) {
-		if (!isSessionReapEnabled && !overrideFlag) {
-			log.debug("'custom.reap_sessions.enabled' is set to false");
-			return;
-		}
-
-		try {
-
-			log.debug("reaping dead sessions.......");
-
-			Document doc = Jsoup.connect(GRID_STATUS_URL).get();
-
-			Map<String, List<String>> busyDevices = new HashMap<>();
+		reconcile(overrideFlag);
+	}
 
-			doc.select("div.proxy").stream().forEach(elm -> {
-				Element session = elm.selectFirst("div.content_detail > p > img");
+	/**
+	 * @return number of runs, actions taken since start per action and the
+	 *         figures of the last run
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("runs", runs.get());
+		Map<String, Long> actions = new LinkedHashMap<>();
+		totals.forEach((action, count) -> actions.put(action, count.get()));
+		stats.put("actions", actions);
+		stats.put("last_run", lastRun);
+		return stats;
+	}
 
-				String config = elm.selectFirst("div[type=config]").text();
-				String deviceId = getMatches(config, "(?<=udid: ).*?(?=,)").get(0);
+	/**
+	 * compares the inventory with the grid once and releases sessions running
+	 * past the maximum duration and sessions the grid no longer knows of. Slaves
+	 * going away are handled by {@link SlaveLeaseService}.
+	 *
+	 * @param overrideFlag reaps dead sessions even when
+	 *                     'custom.reap_sessions.enabled' is false
+	 */
+	private synchronized void reconcile(boolean overrideFlag) {
+
+		long start = System.currentTimeMillis();
+		Collection<Device> devices = inventory.findAll();
+
+		Map<String, Set<String>> busyDevices = isSessionReapEnabled || overrideFlag ? getBusyDevices() : null;
+
+		List<Device> longRunning = new ArrayList<>();
+		List<Device> dead = new ArrayList<>();
+		for (Device device : devices) {
+			if (device.isFree()) {
+				continue;
+			} else if (isSessionReapEnabled && isLongRunning(device)) {
+				longRunning.add(device);
+			} else if (busyDevices != null && isDead(device, busyDevices)) {
+				dead.add(device);
+			}
+		}
 
-				boolean isBusy = session.hasClass("busy") || session.attr("title").contains("executing");
-				if (isBusy) {
-					String slaveIp = getMatches(elm.text(), "(?<=host: ).*?(?= )").get(0).trim();
-					if (!busyDevices.containsKey(slaveIp)) {
-						busyDevices.put(slaveIp, new ArrayList<>());
-					}
-					List<String> devices = busyDevices.get(slaveIp);
-					devices.add(deviceId);
-					busyDevices.put(slaveIp, devices);
-				}
-			});
+		if (!longRunning.isEmpty()) {
+			log.info("reaping long running sessions on devices {}",
+					longRunning.stream().map(Device::getId).collect(Collectors.toList()));
+			apply(RELEASE_LONG_RUNNING, () -> allocationService.unallocateDevices(longRunning));
+		}
+		if (!dead.isEmpty()) {
+			log.info("reaping dead sessions on devices {}",
+					dead.stream().map(Device::getId).collect(Collectors.toList()));
+			apply(RELEASE_DEAD, () -> allocationService.unallocateDevices(dead));
+		}
 
-			log.debug("busy devices on grid => {}", busyDevices);
+		Map<String, Object> run = new LinkedHashMap<>();
+		run.put("started_at", start);
+		run.put("duration_in_msec", System.currentTimeMillis() - start);
+		run.put("devices", devices.size());
+		run.put(RELEASE_LONG_RUNNING, longRunning.size());
+		run.put(RELEASE_DEAD, dead.size());
+		lastRun = Collections.unmodifiableMap(run);
+		runs.incrementAndGet();
+		log.debug("reconciled devices ::: {}", run);
+	}
 
-			deviceRepo.findAll().forEach(device -> {
-				if (!device.isFree() && (busyDevices.isEmpty() || (busyDevices.containsKey(device.getSlaveIp())
-						&& !busyDevices.get(device.getSlaveIp()).contains(device.getId())))) {
-					allocationService
-							.unallocateDevice(new DeviceRestrictionRequest(device.getId(), device.getSlaveIp()), null);
-				}
-			});
+	private void apply(String action, IntSupplier supplier) {
+		try {
+			totals.computeIfAbsent(action, e -> new AtomicLong()).addAndGet(supplier.getAsInt());
 		} catch (Exception ex) {
-			ex.printStackTrace();
+			log.error(String.format("'%s' occurred while applying action '%s'", ex.getClass().getName(), action), ex);
 		}
 	}
 
-	private boolean isReachable(@NonNull String address, int port, int timeout) {
-		try {
-			try (java.net.Socket socket = new java.net.Socket()) {
-				socket.setSoTimeout(timeout);
-				socket.connect(new java.net.InetSocketAddress(address, port), timeout);
-			}
-			return true;
-		} catch (IOException e) {
+	/**
+	 * @return ids of busy devices per slave or <code>null</code> while the grid
+	 *         is not started
+	 */
+	private Map<String, Set<String>> getBusyDevices() {
+		CustomGridRegistry registry = CustomGridRegistry.getInstance();
+		if (registry == null) {
+			log.debug("grid is not started yet, skipping reaping of dead sessions");
+			return null;
+		}
+		Map<String, Set<String>> busyDevices = registry.getNodes().stream()
+				.filter(e -> e.isBusy() && e.getSlaveIp() != null && e.getDeviceId() != null)
+				.collect(groupingBy(GridNode::getSlaveIp, mapping(GridNode::getDeviceId, toSet())));
+		log.debug("busy devices on grid => {}", busyDevices);
+		return busyDevices;
+	}
+
+	private boolean isLongRunning(Device device) {
+		return device.getLastAllocationStart() != null && device.getLastAllocationEnd() == null
+				&& System.currentTimeMillis() - device.getLastAllocationStart().getTime() >= maxSessionDurationInSec
+						* 1000L;
+	}
+
+	private boolean isDead(Device device, Map<String, Set<String>> busyDevices) {
+		if (isRecentlyClaimed(device)) {
 			return false;
 		}
+		return busyDevices.isEmpty() || (busyDevices.containsKey(device.getSlaveIp())
+				&& !busyDevices.get(device.getSlaveIp()).contains(device.getId()));
+	}
+
+	private boolean isRecentlyClaimed(Device device) {
+		return device.getLastAllocationStart() != null && device.getLastAllocationEnd() == null
+				&& System.currentTimeMillis() - device.getLastAllocationStart().getTime() < CLAIM_GRACE_IN_MSEC;
 	}
 }
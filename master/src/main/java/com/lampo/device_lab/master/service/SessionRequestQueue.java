@@ -0,0 +1,271 @@
+package com.lampo.device_lab.master.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.lampo.device_lab.master.exception.DeviceManagerException;
+import com.lampo.device_lab.master.grid.DeviceMatchRequest;
+import com.lampo.device_lab.master.model.DeviceInfo;
+import com.lampo.device_lab.master.model.NodeCapability;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class SessionRequestQueue {
+
+	private static SessionRequestQueue instance;
+
+	private static final Comparator<PendingRequest> ORDER = Comparator
+			.comparingInt(PendingRequest::getPriority).reversed()
+			.thenComparingLong(PendingRequest::getSequence);
+
+	@Autowired
+	private AllocationService allocationService;
+
+	@Autowired
+	private DeviceInventory inventory;
+
+	@Autowired
+	private UtilizationService utilizationService;
+
+	private final ConcurrentLinkedQueue<PendingRequest> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+	private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "session-request-dispatcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * the grid registry is created by selenium and not by spring, so it looks the
+	 * queue up through this accessor
+	 *
+	 * @return {@link SessionRequestQueue} or <code>null</code> before the context
+	 *         is ready
+	 */
+	public static SessionRequestQueue getInstance() {
+		return instance;
+	}
+
+	@PostConstruct
+	public void init() {
+		inventory.addFreeDeviceListener(this::dispatch);
+		instance = this;
+	}
+
+	@PreDestroy
+	public void destroy() {
+		instance = null;
+		dispatcher.shutdownNow();
+		pending.forEach(e -> e.getFuture().completeExceptionally(new DeviceManagerException("hub is shutting down")));
+		pending.clear();
+	}
+
+	/**
+	 * queues the request until a matching device is claimed for it or the timeout
+	 * elapses
+	 *
+	 * @param request      {@link DeviceMatchRequest}
+	 * @param requestId    {@link String}
+	 * @param priority     higher priorities are served first, FIFO otherwise
+	 * @param timeoutInSec maximum time to wait for a device
+	 * @return {@link CompletableFuture} completed with the claimed device
+	 */
+	public CompletableFuture<DeviceInfo> submit(@NonNull DeviceMatchRequest request, String requestId, int priority,
+			long timeoutInSec) {
+
+		PendingRequest entry = new PendingRequest(request, requestId, priority, sequence.incrementAndGet(),
+				System.currentTimeMillis() + timeoutInSec * 1000);
+
+		/* a cancelled or timed out waiter must not keep its slot in the queue */
+		entry.getFuture().whenComplete((device, ex) -> pending.remove(entry));
+
+		pending.add(entry);
+		log.info("request '{}' ::: queued with priority '{}' behind '{}' waiting requests", requestId, priority,
+				pending.size() - 1);
+		dispatch();
+		return entry.getFuture();
+	}
+
+	public int size() {
+		return pending.size();
+	}
+
+	/**
+	 * frees a device handed out by {@link #submit} which never became a session
+	 *
+	 * @param device    {@link DeviceInfo}
+	 * @param requestId {@link String}
+	 */
+	public void release(@NonNull DeviceInfo device, String requestId) {
+		log.info("request '{}' ::: releasing claim on device '{}' which was not turned into a session", requestId,
+				device.getDeviceId());
+		inventory.unclaim(device.getDeviceId(), device.getSlaveIp());
+	}
+
+	/**
+	 * expires requests past their deadline and retries the rest in case a team
+	 * mapping change made a device eligible
+	 */
+	@Scheduled(fixedDelay = 1000)
+	public void sweep() {
+		if (!pending.isEmpty()) {
+			dispatch();
+		}
+	}
+
+	/**
+	 * schedules one matching pass, requests arriving while a pass is scheduled
+	 * are coalesced into it
+	 */
+	public void dispatch() {
+		if (dispatchScheduled.compareAndSet(false, true)) {
+			try {
+				dispatcher.execute(() -> {
+					dispatchScheduled.set(false);
+					match();
+				});
+			} catch (Exception ex) {
+				dispatchScheduled.set(false);
+				log.error("unable to schedule dispatch of waiting session requests", ex);
+			}
+		}
+	}
+
+	private void match() {
+
+		List<PendingRequest> requests = new ArrayList<>(pending);
+		requests.sort(ORDER);
+
+		long now = System.currentTimeMillis();
+		for (PendingRequest entry : requests) {
+			if (entry.getFuture().isDone()) {
+				continue;
+			}
+			if (now > entry.getDeadline()) {
+				String msg = String.format(
+						"request '%s' ::: unable to find node with capability '%s' within '%s seconds'",
+						entry.getRequestId(), entry.getRequest(), (entry.getDeadline() - entry.getCreated()) / 1000);
+				log.error(msg);
+				entry.getFuture().completeExceptionally(new DeviceManagerException(msg));
+				continue;
+			}
+			try {
+				NodeCapability capability = entry.getRequest().getNodeCapability();
+				if (inventory.findFreeDevices(capability == null ? null : capability.getPlatform()).isEmpty()) {
+					continue;
+				}
+				DeviceInfo device = allocationService.getMatchingCapabilityNode(entry.getRequest(),
+						entry.getRequestId());
+				if (device == null) {
+					continue;
+				}
+				if (entry.getFuture().complete(device)) {
+					long waited = System.currentTimeMillis() - entry.getCreated();
+					utilizationService.recordQueueWait(waited);
+					log.info("request '{}' ::: matched device '{}' after waiting '{} ms'", entry.getRequestId(),
+							device.getDeviceId(), waited);
+				} else {
+					/* the waiter gave up while the device was being claimed */
+					inventory.unclaim(device.getDeviceId(), device.getSlaveIp());
+				}
+			} catch (DeviceManagerException ex) {
+				/* the request itself is invalid, retrying cannot satisfy it */
+				log.error("request '{}' ::: unable to match device with message '{}'", entry.getRequestId(),
+						ex.getMessage());
+				entry.getFuture().completeExceptionally(ex);
+			} catch (Exception ex) {
+				/* transient failures like a lost database connection are retried by the next pass */
+				log.error(String.format("request '%s' ::: '%s' occurred while matching device, retrying",
+						entry.getRequestId(), ex.getClass().getName()), ex);
+			}
+		}
+	}
+
+	@Getter
+	private static class PendingRequest {
+
+		private final DeviceMatchRequest request;
+		private final String requestId;
+		private final int priority;
+		private final long sequence;
+		private final long deadline;
+		private final long created = System.currentTimeMillis();
+		private final CompletableFuture<DeviceInfo> future = new CompletableFuture<>();
+
+		private PendingRequest(DeviceMatchRequest request, String requestId, int priority, long sequence,
+				long deadline) {
+			this.request = request;
+			this.requestId = requestId;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.deadline = deadline;
+		}
+	}
+}
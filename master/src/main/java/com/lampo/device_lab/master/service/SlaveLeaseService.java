@@ -0,0 +1,177 @@
+package com.lampo.device_lab.master.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class SlaveLeaseService {
+
+	@Autowired
+	private DeviceInventory inventory;
+
+	@Value("${custom.slave.lease_ttl_in_msec:30000}")
+	private long leaseTtlInMsec;
+
+	@Value("${custom.maintenance.enabled}")
+	private boolean isMaintenanceEnabled;
+
+	private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+	private final AtomicLong renewals = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong disconnectedDevices = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		/* slaves known before a restart get one lease period to check in */
+		long expiresAt = System.currentTimeMillis() + leaseTtlInMsec;
+		inventory.findSlaves().forEach(e -> leases.putIfAbsent(e, new Lease(expiresAt, false)));
+	}
+
+	/**
+	 * renews the lease of the slave, called for every device sync message it
+	 * publishes
+	 *
+	 * @param slaveIp {@link String}
+	 * @return <code>true</code> when the lease had expired, the devices of the
+	 *         slave were marked disconnected meanwhile
+	 */
+	public boolean renew(@NonNull String slaveIp) {
+		renewals.incrementAndGet();
+		Lease previous = leases.put(slaveIp, new Lease(System.currentTimeMillis() + leaseTtlInMsec, false));
+		if (previous != null && previous.expired) {
+			log.info("slave '{}' ::: lease renewed after it expired", slaveIp);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * marks the devices of every slave whose lease ran out disconnected, a slave
+	 * going away is noticed at most one check interval after its lease period
+	 */
+	@Scheduled(fixedDelayString = "${custom.slave.lease_check_interval_in_msec:1000}")
+	public void expire() {
+		if (!isMaintenanceEnabled) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<String> expired = new ArrayList<>();
+		for (String slaveIp : leases.keySet()) {
+			/* flipped atomically so a renewal racing with the check is never lost */
+			leases.computeIfPresent(slaveIp, (ip, lease) -> {
+				if (lease.expired || lease.expiresAt > now) {
+					return lease;
+				}
+				expired.add(ip);
+				return new Lease(lease.expiresAt, true);
+			});
+		}
+		for (String slaveIp : expired) {
+			expirations.incrementAndGet();
+			try {
+				int count = inventory.disconnect(slaveIp);
+				disconnectedDevices.addAndGet(count);
+				log.info("slave '{}' ::: lease expired, marked '{}' devices disconnected", slaveIp, count);
+			} catch (Exception ex) {
+				log.error("{} occurred while disconnecting devices of slave '{}' with message '{}'",
+						ex.getClass().getName(), slaveIp, ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return lease period, counters and the remaining time of every lease
+	 */
+	public Map<String, Object> getStats() {
+		long now = System.currentTimeMillis();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("lease_ttl_in_msec", leaseTtlInMsec);
+		stats.put("renewals", renewals.get());
+		stats.put("expirations", expirations.get());
+		stats.put("disconnected_devices", disconnectedDevices.get());
+		Map<String, Object> slaves = new TreeMap<>();
+		leases.forEach((ip, lease) -> {
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("expired", lease.expired);
+			entry.put("expires_in_msec", Math.max(0, lease.expiresAt - now));
+			slaves.put(ip, entry);
+		});
+		stats.put("slaves", slaves);
+		return stats;
+	}
+
+	private static class Lease {
+
+		private final long expiresAt;
+		private final boolean expired;
+
+		private Lease(long expiresAt, boolean expired) {
+			this.expiresAt = expiresAt;
+			this.expired = expired;
+		}
+	}
+}
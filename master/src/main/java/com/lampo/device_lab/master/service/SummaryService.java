@@ -0,0 +1,427 @@
+package com.lampo.device_lab.master.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.unwind;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.ObjectOperators;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.lampo.device_lab.master.model.Summary;
+import com.lampo.device_lab.master.model.SummaryInfo;
+import com.lampo.device_lab.master.model.SummaryRollup;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class SummaryService {
+
+	public static final DateTimeFormatter PATTERN = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	/*
+	 * counters are only touched inside compute and taken out with remove, both
+	 * lock the same bin, so no increment is lost between two flushes
+	 */
+	private final Map<SummaryKey, Counter> pending = new ConcurrentHashMap<>();
+
+	/* dates whose counters were written but whose rollups could not be refreshed yet, guarded by flush */
+	private final Set<LocalDate> staleRollups = new LinkedHashSet<>();
+
+	/**
+	 * indexes the summary collections, backfills the date key of documents written
+	 * before it existed and builds missing rollups
+	 */
+	@PostConstruct
+	public synchronized void init() {
+		mongoTemplate.indexOps(Summary.class).ensureIndex(new Index("day", Direction.ASC));
+		mongoTemplate.indexOps(SummaryRollup.class)
+				.ensureIndex(new Index("period", Direction.ASC).on("start", Direction.ASC).unique());
+
+		Query missing = Query.query(Criteria.where("day").exists(false));
+		missing.fields().include("date");
+		List<Summary> summaries = mongoTemplate.find(missing, Summary.class);
+		if (!summaries.isEmpty()) {
+			BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, Summary.class);
+			for (Summary summary : summaries) {
+				try {
+					ops.updateOne(Query.query(Criteria.where("_id").is(summary.getId())),
+							Update.update("day", toDate(LocalDate.parse(summary.getDate(), PATTERN))));
+				} catch (DateTimeParseException | NullPointerException ex) {
+					log.warn("summary '{}' has invalid date '{}', skipping it", summary.getId(), summary.getDate());
+				}
+			}
+			ops.execute();
+			log.info("added date key to '{}' summaries", summaries.size());
+		}
+
+		if (mongoTemplate.count(new Query(), SummaryRollup.class) == 0) {
+			Query days = new Query();
+			days.fields().include("day");
+			Set<LocalDate> dates = new TreeSet<>();
+			mongoTemplate.find(days, Summary.class).stream().filter(e -> e.getDay() != null)
+					.forEach(e -> dates.add(toLocalDate(e.getDay())));
+			refreshRollups(dates);
+			log.info("built summary rollups for '{}' days", dates.size());
+		}
+	}
+
+	public void addSession(String team) {
+		add(team, 1, 0);
+	}
+
+	public void addDuration(String team, long duration) {
+		add(team, 0, duration);
+	}
+
+	private void add(String team, long sessions, long duration) {
+		if (team == null || team.trim().isEmpty()) {
+			return;
+		}
+		SummaryKey key = new SummaryKey(LocalDate.now(), team);
+		pending.compute(key, (k, counter) -> {
+			Counter value = counter == null ? new Counter() : counter;
+			value.sessions += sessions;
+			value.duration += duration;
+			return value;
+		});
+	}
+
+	/**
+	 * writes the accumulated counters as <code>$inc</code> upserts in one bulk
+	 * operation and refreshes the rollups of the touched weeks and months, rollups
+	 * which failed to refresh are retried on the next flush
+	 */
+	@Scheduled(fixedDelayString = "${custom.summary.flush_interval_in_msec:5000}")
+	@PreDestroy
+	public synchronized void flush() {
+		if (pending.isEmpty() && staleRollups.isEmpty()) {
+			return;
+		}
+
+		List<SummaryKey> keys = new ArrayList<>();
+		List<Counter> counters = new ArrayList<>();
+		for (SummaryKey key : new ArrayList<>(pending.keySet())) {
+			Counter counter = pending.remove(key);
+			if (counter != null) {
+				keys.add(key);
+				counters.add(counter);
+			}
+		}
+
+		if (!keys.isEmpty()) {
+			write(keys, counters);
+		}
+
+		try {
+			refreshRollups(staleRollups);
+			staleRollups.clear();
+		} catch (Exception ex) {
+			log.error("{} occurred while refreshing summary rollups with message '{}', retrying on next flush",
+					ex.getClass().getName(), ex.getMessage());
+		}
+	}
+
+	private void write(List<SummaryKey> keys, List<Counter> counters) {
+
+		/* ordered, so two upserts of a date not yet written cannot both insert */
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.ORDERED, Summary.class);
+		for (int i = 0; i < keys.size(); i++) {
+			LocalDate date = keys.get(i).getDate();
+			String field = "info." + escape(keys.get(i).getTeam());
+			ops.upsert(Query.query(Criteria.where("day").is(toDate(date))),
+					new Update().setOnInsert("date", date.format(PATTERN))
+							.inc(field + ".numberOfSessions", counters.get(i).sessions)
+							.inc(field + ".totalDuration", counters.get(i).duration));
+		}
+
+		int applied = 0;
+		try {
+			ops.execute();
+			applied = keys.size();
+			log.debug("flushed summary counters of '{}' teams", keys.size());
+		} catch (BulkOperationException ex) {
+			applied = ex.getErrors().isEmpty() ? 0 : ex.getErrors().get(0).getIndex();
+			log.error("summary flush failed at '{}' of '{}' updates with message '{}', retrying on next flush",
+					applied, keys.size(), ex.getMessage());
+		} catch (Exception ex) {
+			log.error("{} occurred while flushing summary counters with message '{}', retrying on next flush",
+					ex.getClass().getName(), ex.getMessage());
+		}
+
+		/* updates before the failed one were written by the ordered bulk */
+		for (int i = applied; i < keys.size(); i++) {
+			pending.merge(keys.get(i), counters.get(i), (current, failed) -> {
+				current.sessions += failed.sessions;
+				current.duration += failed.duration;
+				return current;
+			});
+		}
+
+		keys.subList(0, applied).forEach(e -> staleRollups.add(e.getDate()));
+	}
+
+	/**
+	 * @return daily summaries between both dates, inclusive, ordered by date
+	 */
+	public List<Summary> findBetween(@NonNull LocalDate start, @NonNull LocalDate end) {
+		return mongoTemplate.find(Query.query(Criteria.where("day").gte(toDate(start)).lte(toDate(end)))
+				.with(Sort.by(Direction.ASC, "day")), Summary.class);
+	}
+
+	/**
+	 * sums the summaries between both dates, inclusive. whole months and weeks
+	 * inside the range are read from their rollups, so only the days at the edges
+	 * are read from the daily summaries
+	 *
+	 * @param team {@link String} to restrict the totals to, all teams when blank
+	 * @return team name to totals
+	 */
+	public Map<String, SummaryInfo> totalBetween(@NonNull LocalDate start, @NonNull LocalDate end, String team) {
+
+		Periods periods = Periods.split(start, end);
+		List<Date> months = toDates(periods.months);
+		List<Date> weeks = toDates(periods.weeks);
+		List<Date> days = toDates(periods.days);
+
+		Map<String, SummaryInfo> totals = new HashMap<>();
+		if (!days.isEmpty()) {
+			merge(totals, sum(Summary.class, Criteria.where("day").in(days), team));
+		}
+		if (!weeks.isEmpty()) {
+			merge(totals, sum(SummaryRollup.class,
+					Criteria.where("period").is(SummaryRollup.WEEK).and("start").in(weeks), team));
+		}
+		if (!months.isEmpty()) {
+			merge(totals, sum(SummaryRollup.class,
+					Criteria.where("period").is(SummaryRollup.MONTH).and("start").in(months), team));
+		}
+		return totals;
+	}
+
+	private void refreshRollups(Collection<LocalDate> dates) {
+		Set<LocalDate> weeks = new TreeSet<>();
+		Set<LocalDate> months = new TreeSet<>();
+		dates.forEach(e -> {
+			weeks.add(Periods.weekStart(e));
+			months.add(Periods.monthStart(e));
+		});
+		if (weeks.isEmpty()) {
+			return;
+		}
+
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, SummaryRollup.class);
+		weeks.forEach(e -> ops.upsert(rollup(SummaryRollup.WEEK, e), Update.update("info", sum(Summary.class,
+				Criteria.where("day").gte(toDate(e)).lte(toDate(Periods.weekEnd(e))), null))));
+		months.forEach(e -> ops.upsert(rollup(SummaryRollup.MONTH, e), Update.update("info", sum(Summary.class,
+				Criteria.where("day").gte(toDate(e)).lte(toDate(Periods.monthEnd(e))), null))));
+		ops.execute();
+	}
+
+	private static Query rollup(String period, LocalDate start) {
+		return Query.query(Criteria.where("period").is(period).and("start").is(toDate(start)));
+	}
+
+	/**
+	 * sums the per team counters of the matching documents on the server
+	 */
+	private Map<String, SummaryInfo> sum(Class<?> type, Criteria criteria, String team) {
+
+		List<AggregationOperation> stages = new ArrayList<>();
+		stages.add(match(criteria));
+		stages.add(project().and(ObjectOperators.valueOf("info").toArray()).as("teams"));
+		stages.add(unwind("teams"));
+		if (team != null && !team.trim().isEmpty()) {
+			stages.add(match(Criteria.where("teams.k").is(escape(team))));
+		}
+		stages.add(group("teams.k").sum("teams.v.numberOfSessions").as("numberOfSessions")
+				.sum("teams.v.totalDuration").as("totalDuration"));
+		Aggregation aggregation = newAggregation(stages);
+
+		Map<String, SummaryInfo> totals = new HashMap<>();
+		for (Document document : mongoTemplate.aggregate(aggregation, type, Document.class)) {
+			totals.put(document.getString("_id"), new SummaryInfo(toLong(document.get("numberOfSessions")),
+					toLong(document.get("totalDuration"))));
+		}
+		return totals;
+	}
+
+	private static void merge(Map<String, SummaryInfo> totals, Map<String, SummaryInfo> values) {
+		values.forEach((team, value) -> totals.merge(team, value, (a, b) -> new SummaryInfo(
+				a.getNumberOfSessions() + b.getNumberOfSessions(), a.getTotalDuration() + b.getTotalDuration())));
+	}
+
+	private static long toLong(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : 0;
+	}
+
+	private static List<Date> toDates(List<LocalDate> dates) {
+		return dates.stream().map(SummaryService::toDate).collect(Collectors.toList());
+	}
+
+	private static Date toDate(LocalDate date) {
+		return Date.from(date.atStartOfDay(ZoneOffset.UTC).toInstant());
+	}
+
+	private static LocalDate toLocalDate(Date date) {
+		return date.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+	}
+
+	private static String escape(@NonNull String team) {
+		return team.replace('.', '_').replace('$', '_');
+	}
+
+	@Data
+	private static class SummaryKey {
+		private final LocalDate date;
+		private final String team;
+	}
+
+	private static class Counter {
+		private long sessions;
+		private long duration;
+	}
+
+	/**
+	 * a range of days split into whole months, whole iso weeks and the days left
+	 * over, rollups are refreshed over the same week and month bounds
+	 */
+	static final class Periods {
+
+		final List<LocalDate> months = new ArrayList<>();
+		final List<LocalDate> weeks = new ArrayList<>();
+		final List<LocalDate> days = new ArrayList<>();
+
+		static Periods split(@NonNull LocalDate start, @NonNull LocalDate end) {
+			Periods periods = new Periods();
+			LocalDate date = start;
+			while (!date.isAfter(end)) {
+				if (date.equals(monthStart(date)) && !monthEnd(date).isAfter(end)) {
+					periods.months.add(date);
+					date = monthEnd(date).plusDays(1);
+				} else if (date.equals(weekStart(date)) && !weekEnd(date).isAfter(end)
+						&& !coversWholeMonth(date, end)) {
+					periods.weeks.add(date);
+					date = weekEnd(date).plusDays(1);
+				} else {
+					periods.days.add(date);
+					date = date.plusDays(1);
+				}
+			}
+			return periods;
+		}
+
+		/* a week reaching into a month which lies in the range would keep that month from its rollup */
+		private static boolean coversWholeMonth(LocalDate weekStart, LocalDate end) {
+			LocalDate next = monthStart(weekEnd(weekStart));
+			return next.isAfter(weekStart) && !monthEnd(next).isAfter(end);
+		}
+
+		static LocalDate weekStart(LocalDate date) {
+			return date.with(DayOfWeek.MONDAY);
+		}
+
+		static LocalDate weekEnd(LocalDate weekStart) {
+			return weekStart.plusDays(6);
+		}
+
+		static LocalDate monthStart(LocalDate date) {
+			return date.withDayOfMonth(1);
+		}
+
+		static LocalDate monthEnd(LocalDate monthStart) {
+			return monthStart.with(TemporalAdjusters.lastDayOfMonth());
+		}
+	}
+}
@@ -0,0 +1,426 @@
+package com.lampo.device_lab.master.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.lampo.device_lab.master.model.DeviceUtilization;
+import com.lampo.device_lab.master.model.QueueWaitPercentiles;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class UtilizationService {
+
+	private static final String HOURLY = "utilization_hourly";
+	private static final String DAILY = "utilization_daily";
+	private static final String QUEUE_WAIT = "queue_wait_daily";
+
+	private static final long HOUR_IN_MSEC = TimeUnit.HOURS.toMillis(1);
+	private static final long DAY_IN_MSEC = TimeUnit.DAYS.toMillis(1);
+
+	/* upper bounds in msec of the queue wait histogram, the last bucket is unbounded */
+	private static final long[] WAIT_BOUNDS = { 100, 250, 500, 1000, 2000, 5000, 10000, 20000, 30000, 60000,
+			120000, 180000, 300000 };
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Value("${custom.utilization.raw_retention_in_days:7}")
+	private int rawRetentionInDays;
+
+	@Value("${custom.utilization.hourly_retention_in_days:90}")
+	private int hourlyRetentionInDays;
+
+	private final ConcurrentLinkedQueue<Interval> intervals = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<long[]> waits = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * hourly buckets expire through a ttl index, daily buckets are kept for good
+	 */
+	@PostConstruct
+	public void init() {
+		Index bucket = new Index("deviceId", Direction.ASC).on("slaveIp", Direction.ASC).on("start", Direction.ASC)
+				.unique();
+		mongoTemplate.indexOps(HOURLY).ensureIndex(bucket);
+		try {
+			mongoTemplate.indexOps(HOURLY).ensureIndex(new Index("start", Direction.ASC)
+					.expire(hourlyRetentionInDays, TimeUnit.DAYS).named("start_ttl"));
+		} catch (Exception ex) {
+			/* an existing ttl index with another retention has to be dropped by hand */
+			log.error("{} occurred while creating ttl index of hourly utilization with message '{}'",
+					ex.getClass().getName(), ex.getMessage());
+		}
+		mongoTemplate.indexOps(DAILY).ensureIndex(bucket);
+		mongoTemplate.indexOps(DAILY).ensureIndex(new Index("start", Direction.ASC));
+		mongoTemplate.indexOps(QUEUE_WAIT).ensureIndex(new Index("start", Direction.ASC).unique());
+	}
+
+	/**
+	 * records a finished allocation, the write happens on the next flush
+	 */
+	public void recordSession(@NonNull String deviceId, @NonNull String slaveIp, String team, String job,
+			@NonNull Date start, @NonNull Date end) {
+		if (end.after(start)) {
+			intervals.add(new Interval(deviceId, slaveIp, team, job, start.getTime(), end.getTime()));
+		}
+	}
+
+	/**
+	 * records how long a session request waited for a device
+	 */
+	public void recordQueueWait(long waitInMsec) {
+		waits.add(new long[] { System.currentTimeMillis(), Math.max(0, waitInMsec) });
+	}
+
+	/**
+	 * writes the recorded intervals into hourly and daily buckets. both are written
+	 * at once, so downsampling never has to re-read the raw intervals
+	 */
+	@Scheduled(fixedDelayString = "${custom.utilization.flush_interval_in_msec:5000}")
+	@PreDestroy
+	public synchronized void flush() {
+
+		Map<BucketKey, Bucket> buckets = new LinkedHashMap<>();
+		Interval interval;
+		int count = 0;
+		while ((interval = intervals.poll()) != null) {
+			count++;
+			split(buckets, HOURLY, HOUR_IN_MSEC, interval);
+			split(buckets, DAILY, DAY_IN_MSEC, interval);
+		}
+
+		Map<Long, long[]> histograms = new HashMap<>();
+		long[] wait;
+		while ((wait = waits.poll()) != null) {
+			long[] histogram = histograms.computeIfAbsent(floor(wait[0], DAY_IN_MSEC),
+					k -> new long[WAIT_BOUNDS.length + 2]);
+			histogram[bucketOf(wait[1])]++;
+			histogram[WAIT_BOUNDS.length + 1] += wait[1];
+		}
+
+		if (buckets.isEmpty() && histograms.isEmpty()) {
+			return;
+		}
+
+		try {
+			if (!buckets.isEmpty()) {
+				BulkOperations hourly = mongoTemplate.bulkOps(BulkMode.UNORDERED, HOURLY);
+				BulkOperations daily = mongoTemplate.bulkOps(BulkMode.UNORDERED, DAILY);
+				buckets.forEach((key, value) -> (HOURLY.equals(key.getCollection()) ? hourly : daily).upsert(
+						Query.query(Criteria.where("deviceId").is(key.getDeviceId()).and("slaveIp")
+								.is(key.getSlaveIp()).and("start").is(new Date(key.getStart()))),
+						value.toUpdate()));
+				hourly.execute();
+				daily.execute();
+			}
+			if (!histograms.isEmpty()) {
+				BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, QUEUE_WAIT);
+				histograms.forEach((day, histogram) -> {
+					Update update = new Update();
+					for (int i = 0; i <= WAIT_BOUNDS.length; i++) {
+						if (histogram[i] > 0) {
+							update.inc("histogram." + i, histogram[i]);
+						}
+					}
+					update.inc("total", histogram[WAIT_BOUNDS.length + 1]);
+					ops.upsert(Query.query(Criteria.where("start").is(new Date(day))), update);
+				});
+				ops.execute();
+			}
+			log.debug("flushed '{}' allocation intervals into '{}' utilization buckets", count, buckets.size());
+		} catch (Exception ex) {
+			/* utilization is best effort, a failed flush is not replayed to avoid counting twice */
+			log.error("{} occurred while flushing '{}' allocation intervals with message '{}'",
+					ex.getClass().getName(), count, ex.getMessage());
+		}
+	}
+
+	/**
+	 * drops the raw intervals of hourly buckets past their retention, the hourly
+	 * totals stay until the ttl index removes them
+	 */
+	@Scheduled(cron = "${custom.cron.downsample_utilization:0 15 * * * ?}")
+	public void downsample() {
+		Date before = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(rawRetentionInDays));
+		long modified = mongoTemplate
+				.updateMulti(Query.query(Criteria.where("start").lt(before).and("sessions").exists(true)),
+						new Update().unset("sessions"), HOURLY)
+				.getModifiedCount();
+		if (modified > 0) {
+			log.info("dropped raw allocation intervals of '{}' hourly buckets", modified);
+		}
+	}
+
+	/**
+	 * @param start   first day, inclusive, in utc
+	 * @param end     last day, inclusive, in utc
+	 * @param slaveIp {@link String} to restrict to, all slaves when blank
+	 * @return utilization of every device that was allocated in the range, most
+	 *         utilized first
+	 */
+	public List<DeviceUtilization> getUtilization(@NonNull LocalDate start, @NonNull LocalDate end,
+			String slaveIp) {
+
+		Criteria criteria = Criteria.where("start").gte(toDate(start)).lte(toDate(end));
+		if (slaveIp != null && !slaveIp.trim().isEmpty()) {
+			criteria = criteria.and("slaveIp").is(slaveIp);
+		}
+		Aggregation aggregation = newAggregation(match(criteria),
+				group("deviceId", "slaveIp").sum("busy").as("busy").sum("count").as("count"));
+
+		long period = (ChronoUnit.DAYS.between(start, end) + 1) * DAY_IN_MSEC;
+		List<DeviceUtilization> list = new ArrayList<>();
+		for (Document document : mongoTemplate.aggregate(aggregation, DAILY, Document.class)) {
+			Document id = (Document) document.get("_id");
+			long busy = Math.min(period, toLong(document.get("busy")));
+			list.add(new DeviceUtilization(id.getString("deviceId"), id.getString("slaveIp"),
+					toLong(document.get("count")), busy, period - busy,
+					Math.round(busy * 10000.0 / period) / 10000.0));
+		}
+		list.sort(Comparator.comparingDouble(DeviceUtilization::getUtilization).reversed());
+		return list;
+	}
+
+	/**
+	 * @return busy time per bucket of a device, hourly while the range is within
+	 *         the hourly retention and daily otherwise
+	 */
+	public List<Map<String, Object>> getTimeline(@NonNull String deviceId, String slaveIp,
+			@NonNull LocalDate start, @NonNull LocalDate end) {
+
+		boolean hourly = !start.isBefore(LocalDate.now(ZoneOffset.UTC).minusDays(hourlyRetentionInDays - 1L));
+		Criteria criteria = Criteria.where("deviceId").is(deviceId).and("start").gte(toDate(start))
+				.lt(toDate(end.plusDays(1)));
+		if (slaveIp != null && !slaveIp.trim().isEmpty()) {
+			criteria = criteria.and("slaveIp").is(slaveIp);
+		}
+		Query query = Query.query(criteria).with(Sort.by(Direction.ASC, "start"));
+		query.fields().include("slaveIp").include("start").include("busy").include("count").include("teams");
+
+		List<Map<String, Object>> list = new ArrayList<>();
+		for (Document document : mongoTemplate.find(query, Document.class, hourly ? HOURLY : DAILY)) {
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("slave_ip", document.get("slaveIp"));
+			entry.put("start", document.get("start"));
+			entry.put("granularity", hourly ? "hour" : "day");
+			entry.put("number_of_sessions", toLong(document.get("count")));
+			entry.put("busy_duration", toLong(document.get("busy")));
+			entry.put("teams", document.get("teams", Collections.emptyMap()));
+			list.add(entry);
+		}
+		return list;
+	}
+
+	/**
+	 * @return queue wait percentiles of the session requests served in the range
+	 */
+	public QueueWaitPercentiles getQueueWait(@NonNull LocalDate start, @NonNull LocalDate end) {
+
+		long[] histogram = new long[WAIT_BOUNDS.length + 1];
+		long total = 0;
+		for (Document document : mongoTemplate.find(
+				Query.query(Criteria.where("start").gte(toDate(start)).lte(toDate(end))), Document.class,
+				QUEUE_WAIT)) {
+			Document counts = document.get("histogram", new Document());
+			for (int i = 0; i < histogram.length; i++) {
+				histogram[i] += toLong(counts.get(String.valueOf(i)));
+			}
+			total += toLong(document.get("total"));
+		}
+
+		long count = 0;
+		for (long value : histogram) {
+			count += value;
+		}
+		return new QueueWaitPercentiles(count, count == 0 ? 0 : total / count, percentile(histogram, count, 0.5),
+				percentile(histogram, count, 0.9), percentile(histogram, count, 0.99),
+				WAIT_BOUNDS[WAIT_BOUNDS.length - 1]);
+	}
+
+	private static void split(Map<BucketKey, Bucket> buckets, String collection, long size, Interval interval) {
+		boolean first = true;
+		long end = interval.getEnd();
+		for (long bucketStart = floor(interval.getStart(), size); bucketStart < end; bucketStart += size) {
+			long overlap = Math.min(end, bucketStart + size) - Math.max(interval.getStart(), bucketStart);
+			Bucket bucket = buckets.computeIfAbsent(
+					new BucketKey(collection, interval.getDeviceId(), interval.getSlaveIp(), bucketStart),
+					k -> new Bucket());
+			bucket.busy += overlap;
+			if (interval.getTeam() != null) {
+				bucket.teams.merge(interval.getTeam().replace('.', '_').replace('$', '_'), overlap, Long::sum);
+			}
+			/* a session counts once, in the bucket it started in */
+			if (first) {
+				bucket.count++;
+				if (HOURLY.equals(collection)) {
+					bucket.sessions.add(interval.toDocument());
+				}
+				first = false;
+			}
+		}
+	}
+
+	/*
+	 * waits above the largest bound have no upper bound to report, they come back
+	 * as null instead of a made up value
+	 */
+	private static Long percentile(long[] histogram, long count, double percentile) {
+		if (count == 0) {
+			return 0L;
+		}
+		long rank = (long) Math.ceil(count * percentile);
+		long seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= rank) {
+				return i < WAIT_BOUNDS.length ? WAIT_BOUNDS[i] : null;
+			}
+		}
+		return null;
+	}
+
+	private static int bucketOf(long waitInMsec) {
+		for (int i = 0; i < WAIT_BOUNDS.length; i++) {
+			if (waitInMsec <= WAIT_BOUNDS[i]) {
+				return i;
+			}
+		}
+		return WAIT_BOUNDS.length;
+	}
+
+	private static long floor(long time, long size) {
+		return time - Math.floorMod(time, size);
+	}
+
+	private static long toLong(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : 0;
+	}
+
+	private static Date toDate(LocalDate date) {
+		return Date.from(date.atStartOfDay(ZoneOffset.UTC).toInstant());
+	}
+
+	@Data
+	private static class Interval {
+		private final String deviceId;
+		private final String slaveIp;
+		private final String team;
+		private final String job;
+		private final long start;
+		private final long end;
+
+		private Document toDocument() {
+			return new Document("start", new Date(start)).append("end", new Date(end)).append("team", team)
+					.append("job", job);
+		}
+	}
+
+	@Data
+	private static class BucketKey {
+		private final String collection;
+		private final String deviceId;
+		private final String slaveIp;
+		private final long start;
+	}
+
+	private static class Bucket {
+		private long busy;
+		private long count;
+		private final Map<String, Long> teams = new HashMap<>();
+		private final List<Document> sessions = new ArrayList<>();
+
+		private Update toUpdate() {
+			Update update = new Update().inc("busy", busy).inc("count", count);
+			teams.forEach((team, value) -> update.inc("teams." + team, value));
+			if (!sessions.isEmpty()) {
+				update.push("sessions").each(sessions.toArray());
+			}
+			return update;
+		}
+	}
+}
@@ -1,9 +1,22 @@
 package com.lampo.device_lab.master.utils;
 
-import static java.lang.Runtime.getRuntime;
-
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.lampo.device_lab.master.model.CommandLineResponse;
 
@@ -61,20 +74,77 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class CommandLineExecutor {
 
+	private static final long TIMEOUT_IN_SEC = 60;
+	private static final int MAX_OUTPUT_IN_BYTES = 4 * 1024 * 1024;
+	private static final int POOL_SIZE = 4;
+	private static final int QUEUE_CAPACITY = 128;
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	/* bounded, a full queue makes the submitting thread run the command itself */
+	private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(QUEUE_CAPACITY), r -> {
+				Thread thread = new Thread(r, "command-executor-" + THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.CallerRunsPolicy());
+
+	private static final ExecutorService DRAINERS = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "command-output-drainer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final AtomicInteger WAITING = new AtomicInteger();
+	private static final AtomicLong EXECUTED = new AtomicLong();
+	private static final AtomicLong TIMED_OUT = new AtomicLong();
+	private static final AtomicLong FAILED = new AtomicLong();
+	private static final AtomicLong TOTAL_LATENCY_IN_MSEC = new AtomicLong();
+	private static final AtomicLong MAX_LATENCY_IN_MSEC = new AtomicLong();
+
+	static {
+		POOL.allowCoreThreadTimeOut(true);
+	}
+
 	private CommandLineExecutor() {
 	}
 
 	public static void run(@NonNull String command, int timeout) {
-		try {
-			getRuntime().exec(command).waitFor(timeout, TimeUnit.SECONDS);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		execAsync(command, timeout).join();
 	}
 
 	public static CommandLineResponse exec(final String cmd) {
+		return execAsync(cmd, TIMEOUT_IN_SEC).join();
+	}
+
+	public static CompletableFuture<CommandLineResponse> execAsync(final String cmd, long timeoutInSec) {
+		WAITING.incrementAndGet();
+		return CompletableFuture.supplyAsync(() -> {
+			WAITING.decrementAndGet();
+			return execute(cmd, timeoutInSec);
+		}, POOL);
+	}
+
+	/**
+	 * @return queue depth and latency of executed commands
+	 */
+	public static Map<String, Object> getStats() {
+		long executed = EXECUTED.get();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("waiting", WAITING.get());
+		stats.put("running", POOL.getActiveCount());
+		stats.put("executed", executed);
+		stats.put("timed_out", TIMED_OUT.get());
+		stats.put("failed", FAILED.get());
+		stats.put("average_latency_in_msec", executed == 0 ? 0 : TOTAL_LATENCY_IN_MSEC.get() / executed);
+		stats.put("max_latency_in_msec", MAX_LATENCY_IN_MSEC.get());
+		return stats;
+	}
+
+	private static CommandLineResponse execute(final String cmd, long timeoutInSec) {
 
 		log.debug("executing command : {}", cmd);
+		long start = System.currentTimeMillis();
 		Process process = null;
 		try {
 			ProcessBuilder builder = new ProcessBuilder("bash", "-c", cmd);
@@ -83,21 +153,102 @@ public class CommandLineExecutor {
 			Map<String, String> env = builder.environment();
 			env.put("PATH", env.get("PATH") + ":/usr/local/bin:" + System.getenv("HOME") + "/.linuxbrew/bin");
 			process = builder.start();
+			process.getOutputStream().close();
 
-			process.waitFor(60, TimeUnit.SECONDS);
-			response.setStdOut(CommonUtilities.toString(process.getInputStream()).trim());
-			response.setErrOut(CommonUtilities.toString(process.getErrorStream()).trim());
-			response.setExitCode(process.exitValue());
+			/* both pipes are drained while the process runs so a full pipe cannot block it */
+			Future<String> stdOut = DRAINERS.submit(drain(process.getInputStream()));
+			Future<String> errOut = DRAINERS.submit(drain(process.getErrorStream()));
+
+			if (process.waitFor(timeoutInSec, TimeUnit.SECONDS)) {
+				response.setExitCode(process.exitValue());
+			} else {
+				TIMED_OUT.incrementAndGet();
+				log.error("command '{}' timed out after '{} seconds', killing its process tree", cmd, timeoutInSec);
+				killTree(process);
+				response.setExitCode(-1);
+			}
+			response.setStdOut(stdOut.get(5, TimeUnit.SECONDS).trim());
+			response.setErrOut(errOut.get(5, TimeUnit.SECONDS).trim());
 			log.trace("response: {}", response);
 			return response;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			FAILED.incrementAndGet();
+			killTree(process);
 		} catch (Throwable e) {
+			FAILED.incrementAndGet();
 			log.error("{} occurred while running command '{}'", e.getClass().getName(), cmd);
 		} finally {
 			if (process != null) {
 				process.destroy();
 			}
+			long latency = System.currentTimeMillis() - start;
+			EXECUTED.incrementAndGet();
+			TOTAL_LATENCY_IN_MSEC.addAndGet(latency);
+			MAX_LATENCY_IN_MSEC.accumulateAndGet(latency, Math::max);
 		}
 		return null;
 	}
 
+	/**
+	 * keeps the first {@value #MAX_OUTPUT_IN_BYTES} bytes and discards the rest
+	 * without blocking the writer
+	 */
+	private static Callable<String> drain(InputStream stream) {
+		return () -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			try (InputStream in = stream) {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					int room = MAX_OUTPUT_IN_BYTES - out.size();
+					if (room > 0) {
+						out.write(buffer, 0, Math.min(read, room));
+					}
+				}
+			} catch (IOException ex) {
+				// stream closed when the process was killed
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		};
+	}
+
+	/**
+	 * bash forks the actual command, so descendants are killed before the shell
+	 * itself
+	 */
+	private static void killTree(Process process) {
+		if (process == null) {
+			return;
+		}
+		long pid = getPid(process);
+		if (pid > 0) {
+			String script = "kill_tree() { for child in $(pgrep -P $1); do kill_tree $child; done; kill -9 $1; }; kill_tree "
+					+ pid;
+			try {
+				new ProcessBuilder("bash", "-c", script).start().waitFor(10, TimeUnit.SECONDS);
+			} catch (IOException ex) {
+				log.error("unable to kill process tree of '{}' with message '{}'", pid, ex.getMessage());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		process.destroyForcibly();
+	}
+
+	private static long getPid(Process process) {
+		try {
+			return (long) Process.class.getMethod("pid").invoke(process);
+		} catch (ReflectiveOperationException ex) {
+			/* java 8 keeps the pid in a private field of the unix implementation */
+			try {
+				Field field = process.getClass().getDeclaredField("pid");
+				field.setAccessible(true);
+				return field.getLong(process);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return -1;
+			}
+		}
+	}
+
 }
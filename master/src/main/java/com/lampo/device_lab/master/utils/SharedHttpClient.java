@@ -0,0 +1,202 @@
+package com.lampo.device_lab.master.utils;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+public final class SharedHttpClient {
+
+	private static final int MAX_IDLE_CONNECTIONS = 32;
+	private static final long KEEP_ALIVE_IN_MIN = 5;
+	private static final int MAX_REQUESTS = 64;
+	private static final int MAX_REQUESTS_PER_HOST = 8;
+	private static final long CONNECT_TIMEOUT_IN_SEC = 10;
+	private static final long READ_TIMEOUT_IN_SEC = 30;
+	private static final int MAX_ENDPOINTS = 256;
+
+	/* request ids and other generated path segments would give every call its own endpoint */
+	private static final Pattern ID_SEGMENT = Pattern.compile("/[0-9a-fA-F-]{16,}(\\.\\w+)?(?=/|$)");
+
+	private static final Map<String, EndpointStats> STATS = new ConcurrentHashMap<>();
+
+	private static final OkHttpClient CLIENT = build();
+
+	private SharedHttpClient() {
+	}
+
+	/**
+	 * @return the client shared by every call of the master, keep-alive
+	 *         connections and dispatcher threads are reused across calls
+	 */
+	public static OkHttpClient get() {
+		return CLIENT;
+	}
+
+	/**
+	 * @param connectTimeoutInSec connection timeout
+	 * @param readTimeoutInSec    read and write timeout
+	 * @return a client with its own timeouts, sharing connection pool, dispatcher
+	 *         and metrics with {@link #get()}
+	 */
+	public static OkHttpClient withTimeouts(long connectTimeoutInSec, long readTimeoutInSec) {
+		return CLIENT.newBuilder().connectTimeout(connectTimeoutInSec, TimeUnit.SECONDS)
+				.readTimeout(readTimeoutInSec, TimeUnit.SECONDS).writeTimeout(readTimeoutInSec, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * @param readTimeoutInSec read and write timeout
+	 * @return a client with the default connection timeout
+	 */
+	public static OkHttpClient withTimeout(long readTimeoutInSec) {
+		return withTimeouts(CONNECT_TIMEOUT_IN_SEC, readTimeoutInSec);
+	}
+
+	/**
+	 * @return pool usage and latency and errors of every endpoint called
+	 */
+	public static Map<String, Object> getStats() {
+		Map<String, Object> endpoints = new TreeMap<>();
+		STATS.forEach((endpoint, stats) -> endpoints.put(endpoint, stats.toMap()));
+
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("connections", CLIENT.connectionPool().connectionCount());
+		stats.put("idle_connections", CLIENT.connectionPool().idleConnectionCount());
+		stats.put("running_async_calls", CLIENT.dispatcher().runningCallsCount());
+		stats.put("queued_async_calls", CLIENT.dispatcher().queuedCallsCount());
+		stats.put("endpoints", endpoints);
+		return stats;
+	}
+
+	private static OkHttpClient build() {
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequests(MAX_REQUESTS);
+		dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+		/* HTTP/2 is negotiated wherever the peer offers it, plain HTTP/1.1 otherwise */
+		return new OkHttpClient.Builder()
+				.connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_IN_MIN, TimeUnit.MINUTES))
+				.dispatcher(dispatcher)
+				.connectTimeout(CONNECT_TIMEOUT_IN_SEC, TimeUnit.SECONDS)
+				.readTimeout(READ_TIMEOUT_IN_SEC, TimeUnit.SECONDS)
+				.writeTimeout(READ_TIMEOUT_IN_SEC, TimeUnit.SECONDS)
+				.retryOnConnectionFailure(true)
+				.addInterceptor(SharedHttpClient::intercept)
+				.build();
+	}
+
+	/*
+	 * only asynchronous calls are limited per host by the dispatcher, blocking
+	 * calls wait on the slave for as long as their own timeout allows
+	 */
+	private static Response intercept(Interceptor.Chain chain) throws IOException {
+		Request request = chain.request();
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		try {
+			Response response = chain.proceed(request);
+			failed = response.code() >= 500;
+			return response;
+		} finally {
+			getStats(request).record(System.currentTimeMillis() - start, failed);
+		}
+	}
+
+	private static EndpointStats getStats(Request request) {
+		String endpoint = String.format("%s %s%s", request.method(), request.url().host(),
+				ID_SEGMENT.matcher(request.url().encodedPath()).replaceAll("/{id}"));
+		EndpointStats stats = STATS.get(endpoint);
+		if (stats != null) {
+			return stats;
+		}
+		return STATS.size() < MAX_ENDPOINTS ? STATS.computeIfAbsent(endpoint, e -> new EndpointStats())
+				: STATS.computeIfAbsent("other", e -> new EndpointStats());
+	}
+
+	private static final class EndpointStats {
+
+		private final AtomicLong calls = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong totalLatency = new AtomicLong();
+		private final AtomicLong maxLatency = new AtomicLong();
+
+		private void record(long latency, boolean failed) {
+			calls.incrementAndGet();
+			if (failed) {
+				errors.incrementAndGet();
+			}
+			totalLatency.addAndGet(latency);
+			maxLatency.accumulateAndGet(latency, Math::max);
+		}
+
+		private Map<String, Object> toMap() {
+			long count = calls.get();
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("calls", count);
+			map.put("errors", errors.get());
+			map.put("average_latency_in_msec", count == 0 ? 0 : totalLatency.get() / count);
+			map.put("max_latency_in_msec", maxLatency.get());
+			return map;
+		}
+	}
+}
@@ -32,14 +32,32 @@ $(document).ready(function() {
 		})
 	});
 
-	setInterval(() => {
+	const refresh = () => {
 		$.ajax({
 			url: 'refresh', success: data => {
 				$(".container-fluid").parent().html(data);
-				let links = $("a.card-link").not(".link-disabled");
 			}
 		})
-	}, 5000);
+	};
+
+	if (window.EventSource) {
+		// cards are pushed as devices change, the whole list is reloaded only when one appears or goes away
+		let events = new EventSource('dashboard/events');
+		events.addEventListener('device', e => {
+			let data = JSON.parse(e.data);
+			let card = $(".card").filter((i, el) => el.dataset.device === data.key);
+			if (card.length) {
+				card.replaceWith(data.html);
+			} else {
+				refresh();
+			}
+		});
+		events.addEventListener('refresh', refresh);
+		// catches up on whatever changed while the stream was down
+		events.onopen = refresh;
+	} else {
+		setInterval(refresh, 5000);
+	}
 
 	$(".close-btn").on('click', () => {
 		$(".body").removeClass("blur");
@@ -0,0 +1,204 @@
+package com.lampo.device_lab.master.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.lampo.device_lab.master.model.ArtifactType;
+import com.lampo.device_lab.master.model.Header;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+class ArtifactServiceTests {
+
+	private static final String SLAVE = "127.0.0.1";
+	private static final String TOKEN = "token";
+
+	private final List<String> calls = new CopyOnWriteArrayList<>();
+	private final DeviceInventory inventory = mock(DeviceInventory.class);
+	private final ArtifactService service = new ArtifactService();
+
+	private HttpServer slave;
+
+	@BeforeEach
+	void start() throws IOException {
+		slave = HttpServer.create(new InetSocketAddress(SLAVE, 0), 0);
+		slave.createContext("/device/artifacts/", this::serve);
+		slave.start();
+
+		ReflectionTestUtils.setField(service, "inventory", inventory);
+		ReflectionTestUtils.setField(service, "slaveAuthToken", TOKEN);
+		ReflectionTestUtils.setField(service, "slavePort", slave.getAddress().getPort());
+		ReflectionTestUtils.setField(service, "indexSize", 16);
+		service.init();
+	}
+
+	@AfterEach
+	void stop() {
+		service.destroy();
+		slave.stop(0);
+	}
+
+	@Test
+	void relaysRangeFromIndexedSlave() throws IOException {
+		service.record("request-1", SLAVE, EnumSet.of(ArtifactType.VIDEO));
+
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/device/videos/request-1");
+		request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		service.stream("request-1", ArtifactType.VIDEO, request, response);
+
+		assertEquals(206, response.getStatus());
+		assertEquals("2345", response.getContentAsString());
+		assertEquals("bytes 2-5/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+		assertEquals("4", response.getHeader(HttpHeaders.CONTENT_LENGTH));
+		assertEquals("video/mp4", response.getContentType());
+		assertEquals(Collections.singletonList("GET /device/artifacts/videos/request-1 bytes=2-5"), calls);
+	}
+
+	@Test
+	void looksUpSlaveOnceForUnindexedRequest() throws IOException {
+		when(inventory.findSlaves()).thenReturn(Collections.singleton(SLAVE));
+
+		service.stream("request-2", ArtifactType.LOG, new MockHttpServletRequest("GET", "/"),
+				new MockHttpServletResponse());
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		service.stream("request-2", ArtifactType.LOG, new MockHttpServletRequest("GET", "/"), response);
+
+		assertEquals(200, response.getStatus());
+		assertEquals("0123456789", response.getContentAsString());
+		assertEquals(SLAVE, service.find("request-2", ArtifactType.LOG));
+		assertEquals(1, calls.stream().filter(e -> e.startsWith("HEAD")).count());
+	}
+
+	@Test
+	void answersNotFoundWithoutSlaveCall() throws IOException {
+		when(inventory.findSlaves()).thenReturn(Collections.emptySet());
+
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		service.stream("request-3", ArtifactType.LOG, new MockHttpServletRequest("GET", "/"), response);
+
+		assertEquals(404, response.getStatus());
+		assertNull(service.find("request-3", ArtifactType.LOG));
+		assertEquals(0, calls.size());
+	}
+
+	@Test
+	void relaysUnsatisfiableRange() throws IOException {
+		service.record("request-4", SLAVE, EnumSet.of(ArtifactType.LOG));
+
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=20-");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		service.stream("request-4", ArtifactType.LOG, request, response);
+
+		assertEquals(416, response.getStatus());
+		assertEquals("bytes */10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+		assertEquals("", response.getContentAsString());
+	}
+
+	/* a slave holding a ten byte artifact for every request, honouring 'bytes=a-b' and 'bytes=a-' */
+	private void serve(HttpExchange exchange) throws IOException {
+		String range = exchange.getRequestHeaders().getFirst(HttpHeaders.RANGE);
+		calls.add(String.format("%s %s%s", exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+				range == null ? "" : " " + range));
+
+		byte[] content = "0123456789".getBytes(StandardCharsets.UTF_8);
+		if (!TOKEN.equals(exchange.getRequestHeaders().getFirst(Header.AUTH.toString()))) {
+			exchange.sendResponseHeaders(401, -1);
+			return;
+		}
+		int status = 200;
+		int start = 0;
+		int end = content.length - 1;
+		if (range != null) {
+			String[] bounds = range.substring("bytes=".length()).split("-", -1);
+			start = Integer.parseInt(bounds[0]);
+			end = bounds[1].isEmpty() ? end : Integer.parseInt(bounds[1]);
+			if (start >= content.length) {
+				exchange.getResponseHeaders().set(HttpHeaders.CONTENT_RANGE, "bytes */" + content.length);
+				exchange.sendResponseHeaders(416, -1);
+				return;
+			}
+			status = 206;
+			exchange.getResponseHeaders().set(HttpHeaders.CONTENT_RANGE,
+					String.format("bytes %s-%s/%s", start, end, content.length));
+		}
+		int length = end - start + 1;
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			exchange.getResponseHeaders().set(HttpHeaders.CONTENT_LENGTH, String.valueOf(length));
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content, start, length);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.lampo.device_lab.master.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.lampo.device_lab.master.service.SummaryService.Periods;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+class SummaryServiceTests {
+
+	private static final LocalDate FIRST_DAY = LocalDate.of(2019, 11, 1);
+	private static final LocalDate LAST_DAY = LocalDate.of(2023, 3, 31);
+
+	/* stands in for the daily documents, the rollups are built from it like refreshRollups does */
+	private final Map<LocalDate, Long> daily = new HashMap<>();
+	private final Map<LocalDate, Long> weekly = new HashMap<>();
+	private final Map<LocalDate, Long> monthly = new HashMap<>();
+
+	SummaryServiceTests() {
+		for (LocalDate date = FIRST_DAY; !date.isAfter(LAST_DAY); date = date.plusDays(1)) {
+			daily.put(date, date.toEpochDay() * 31 % 997 + 1);
+		}
+		for (LocalDate date : daily.keySet()) {
+			LocalDate week = Periods.weekStart(date);
+			weekly.computeIfAbsent(week, e -> sumDaily(e, Periods.weekEnd(e)));
+			LocalDate month = Periods.monthStart(date);
+			monthly.computeIfAbsent(month, e -> sumDaily(e, Periods.monthEnd(e)));
+		}
+	}
+
+	@Test
+	void splitsRangeAcrossMonthAndWeekBoundaries() {
+		/* a wednesday to a wednesday, february is the only whole month */
+		LocalDate start = LocalDate.of(2022, 1, 26);
+		LocalDate end = LocalDate.of(2022, 3, 16);
+		Periods periods = Periods.split(start, end);
+
+		assertEquals(Collections.singletonList(LocalDate.of(2022, 2, 1)), periods.months);
+		assertEquals(Collections.singletonList(LocalDate.of(2022, 3, 7)), periods.weeks);
+		List<LocalDate> days = new ArrayList<>();
+		addDays(days, LocalDate.of(2022, 1, 26), LocalDate.of(2022, 1, 31));
+		addDays(days, LocalDate.of(2022, 3, 1), LocalDate.of(2022, 3, 6));
+		addDays(days, LocalDate.of(2022, 3, 14), LocalDate.of(2022, 3, 16));
+		assertEquals(days, periods.days);
+
+		assertEquals(sumDaily(start, end), total(start, end));
+	}
+
+	@Test
+	void totalsMatchDailySumsForEveryRange() {
+		LocalDate last = LocalDate.of(2022, 3, 15);
+		for (LocalDate start = LocalDate.of(2021, 11, 20); start.isBefore(last); start = start.plusDays(1)) {
+			for (int length = 0; length < 100; length++) {
+				LocalDate end = start.plusDays(length);
+				assertEquals(sumDaily(start, end), total(start, end),
+						String.format("totals between '%s' and '%s'", start, end));
+			}
+		}
+	}
+
+	@Test
+	void totalsMatchDailySumsAcrossYearsAndLeapFebruary() {
+		List<LocalDate[]> ranges = Arrays.asList(
+				new LocalDate[] { LocalDate.of(2020, 12, 29), LocalDate.of(2021, 1, 12) },
+				new LocalDate[] { LocalDate.of(2020, 1, 30), LocalDate.of(2020, 3, 2) },
+				new LocalDate[] { LocalDate.of(2019, 12, 1), LocalDate.of(2022, 12, 31) },
+				new LocalDate[] { LocalDate.of(2021, 3, 1), LocalDate.of(2021, 3, 31) });
+		for (LocalDate[] range : ranges) {
+			assertEquals(sumDaily(range[0], range[1]), total(range[0], range[1]),
+					String.format("totals between '%s' and '%s'", range[0], range[1]));
+		}
+	}
+
+	@Test
+	void coversEveryDayOnce() {
+		LocalDate start = LocalDate.of(2021, 12, 27);
+		LocalDate end = LocalDate.of(2022, 4, 3);
+		Periods periods = Periods.split(start, end);
+
+		List<LocalDate> covered = new ArrayList<>(periods.days);
+		periods.weeks.forEach(e -> addDays(covered, e, Periods.weekEnd(e)));
+		periods.months.forEach(e -> addDays(covered, e, Periods.monthEnd(e)));
+		Collections.sort(covered);
+
+		List<LocalDate> expected = new ArrayList<>();
+		addDays(expected, start, end);
+		assertEquals(expected, covered);
+		assertTrue(periods.weeks.stream().allMatch(e -> e.getDayOfWeek().getValue() == 1));
+	}
+
+	/* what totalBetween reads: daily documents at the edges and rollups in between */
+	private long total(LocalDate start, LocalDate end) {
+		Periods periods = Periods.split(start, end);
+		long total = 0;
+		for (LocalDate date : periods.days) {
+			total += daily.get(date);
+		}
+		for (LocalDate week : periods.weeks) {
+			total += weekly.get(week);
+		}
+		for (LocalDate month : periods.months) {
+			total += monthly.get(month);
+		}
+		return total;
+	}
+
+	private long sumDaily(LocalDate start, LocalDate end) {
+		long total = 0;
+		for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+			total += daily.getOrDefault(date, 0L);
+		}
+		return total;
+	}
+
+	private static void addDays(List<LocalDate> days, LocalDate start, LocalDate end) {
+		for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+			days.add(date);
+		}
+	}
+}
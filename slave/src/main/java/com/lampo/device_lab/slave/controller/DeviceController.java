@@ -1,9 +1,14 @@
 package com.lampo.device_lab.slave.controller;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,6 +17,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.lampo.device_lab.slave.model.ClearDataRequest;
 import com.lampo.device_lab.slave.model.UninstallRequest;
+import com.lampo.device_lab.slave.service.ArtifactService;
 import com.lampo.device_lab.slave.service.DeviceSyncProcessor;
 import com.lampo.device_lab.slave.utils.AppiumLocalService;
 import com.lampo.device_lab.slave.utils.STFServiceBuilder;
@@ -74,6 +80,9 @@ public class DeviceController {
 	@Autowired
 	private DeviceSyncProcessor processor;
 
+	@Autowired
+	private ArtifactService artifactService;
+
 	@PostMapping("/restart_device")
 	public void restartDevice(@RequestParam("device_id") String deviceId) {
 		processor.restartDevice(deviceId);
@@ -89,6 +98,12 @@ public class DeviceController {
 		STFServiceBuilder.builder().restart();
 	}
 
+	@PostMapping("/resync")
+	public void resync() {
+		log.info("master requested a full device snapshot");
+		processor.requestFullSync();
+	}
+
 	@PostMapping("/uninstall_apps")
 	public void uninstallApps(@RequestBody UninstallRequest request) {
 		log.info("request '{}' ::: executing uninstall app request {}", request.getRequestId(), request);
@@ -118,4 +133,10 @@ public class DeviceController {
 		return null;
 
 	}
+
+	@GetMapping("/artifacts/{type}/{request_id}")
+	public void getArtifact(@PathVariable("type") String type, @PathVariable("request_id") String requestId,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		artifactService.stream(type, requestId, request, response);
+	}
 }
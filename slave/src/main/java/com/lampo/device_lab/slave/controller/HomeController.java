@@ -1,8 +1,15 @@
 package com.lampo.device_lab.slave.controller;
 
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.lampo.device_lab.slave.service.AppiumSupervisor;
+import com.lampo.device_lab.slave.utils.CommandLineExecutor;
+import com.lampo.device_lab.slave.utils.PortAllocator;
+
 /**
  * MIT License <br/>
  * <br/>
@@ -54,8 +61,26 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class HomeController {
 
+	@Autowired
+	private AppiumSupervisor appiumSupervisor;
+
 	@GetMapping("/status")
 	public String home() {
 		return "slave app is up!";
 	}
+
+	@GetMapping("/status/commands")
+	public Map<String, Object> commands() {
+		return CommandLineExecutor.getStats();
+	}
+
+	@GetMapping("/status/ports")
+	public Map<String, Object> ports() {
+		return PortAllocator.getStats();
+	}
+
+	@GetMapping("/status/appium")
+	public Map<String, Object> appium() {
+		return appiumSupervisor.getStats();
+	}
 }
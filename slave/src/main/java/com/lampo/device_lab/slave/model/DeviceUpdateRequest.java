@@ -65,6 +65,26 @@ public class DeviceUpdateRequest implements ToJson {
 	@JsonProperty("ip")
 	private String ip;
 
+	/* identifies one run of the slave, sequence numbers restart with every epoch */
+	@Expose
+	@JsonProperty("epoch")
+	private String epoch;
+
+	@Expose
+	@JsonProperty("sequence")
+	private Long sequence;
+
+	/* true when the message carries all connected devices, false for a delta */
+	@Expose
+	@SerializedName("full_snapshot")
+	@JsonProperty("full_snapshot")
+	private boolean fullSnapshot;
+
+	@Expose
+	@SerializedName("removed_devices")
+	@JsonProperty("removed_devices")
+	private Collection<String> removedDevices;
+
 	@Expose
 	@SerializedName("android_devices")
 	@JsonProperty("android_devices")
@@ -0,0 +1,217 @@
+package com.lampo.device_lab.slave.service;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.lampo.device_lab.slave.model.ADBDeviceEvent;
+import com.lampo.device_lab.slave.utils.ADBClient;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Component
+public class ADBDeviceTracker {
+
+	private static final long MIN_BACKOFF_IN_MSEC = 1000;
+	private static final long MAX_BACKOFF_IN_MSEC = 30000;
+
+	private final Map<String, String> devices = new ConcurrentHashMap<>();
+	private final List<Consumer<ADBDeviceEvent>> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile boolean running;
+	private volatile boolean tracking;
+	private volatile Socket socket;
+	private Thread thread;
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		thread = new Thread(this::track, "adb-device-tracker");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		closeQuietly(socket);
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * listeners run on the tracker thread and must hand off any slow work
+	 *
+	 * @param listener {@link Consumer}
+	 */
+	public void addListener(@NonNull Consumer<ADBDeviceEvent> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @return <code>true</code> while connected to the adb server, the device list
+	 *         is only current while tracking
+	 */
+	public boolean isTracking() {
+		return tracking;
+	}
+
+	/**
+	 * @return serial to state of all devices known to the adb server
+	 */
+	public Map<String, String> getDevices() {
+		return Collections.unmodifiableMap(new HashMap<>(devices));
+	}
+
+	/**
+	 * @return serials of the devices in 'device' state
+	 */
+	public List<String> getOnlineDevices() {
+		return devices.entrySet().stream().filter(e -> "device".equals(e.getValue())).map(Map.Entry::getKey)
+				.sorted().collect(Collectors.toList());
+	}
+
+	private void track() {
+		long backoff = MIN_BACKOFF_IN_MSEC;
+		while (running) {
+			try (Socket s = ADBClient.local().connect()) {
+				socket = s;
+				/* the server only writes when something changes */
+				s.setSoTimeout(0);
+				DataInputStream in = ADBClient.input(s);
+				ADBClient.request(s, in, "host:track-devices");
+
+				tracking = true;
+				backoff = MIN_BACKOFF_IN_MSEC;
+				log.info("tracking devices on adb server '{}:{}'", ADBClient.DEFAULT_HOST, ADBClient.DEFAULT_PORT);
+
+				while (running) {
+					update(ADBClient.parseDevices(ADBClient.readMessage(in)));
+				}
+			} catch (IOException | RuntimeException ex) {
+				if (running) {
+					log.warn("{} occurred while tracking adb devices with message '{}', retrying in '{} ms'",
+							ex.getClass().getName(), ex.getMessage(), backoff);
+				}
+			} finally {
+				tracking = false;
+			}
+			if (!running) {
+				break;
+			}
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_IN_MSEC);
+		}
+	}
+
+	private void update(Map<String, String> current) {
+		Set<String> serials = new HashSet<>(devices.keySet());
+		serials.addAll(current.keySet());
+		for (String serial : serials) {
+			String previous = devices.get(serial);
+			String state = current.get(serial);
+			if (state == null) {
+				devices.remove(serial);
+			} else {
+				devices.put(serial, state);
+			}
+			if (previous == null ? state != null : !previous.equals(state)) {
+				notify(new ADBDeviceEvent(serial, previous, state));
+			}
+		}
+	}
+
+	private void notify(ADBDeviceEvent event) {
+		log.info("adb device '{}' changed from '{}' to '{}'", event.getDeviceId(), event.getPreviousState(),
+				event.getState());
+		for (Consumer<ADBDeviceEvent> listener : listeners) {
+			try {
+				listener.accept(event);
+			} catch (Exception ex) {
+				log.error("{} occurred in adb device listener with message '{}'", ex.getClass().getName(),
+						ex.getMessage());
+			}
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException ex) {
+				// ignored
+			}
+		}
+	}
+}
@@ -0,0 +1,408 @@
+package com.lampo.device_lab.slave.service;
+
+import static com.lampo.device_lab.slave.utils.CommonUtilities.getLocalNetworkIP;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.lampo.device_lab.slave.model.Capability;
+import com.lampo.device_lab.slave.model.GridConfiguration;
+import com.lampo.device_lab.slave.model.GridNodeRegistrationRequest;
+import com.lampo.device_lab.slave.model.IDeviceProperty;
+import com.lampo.device_lab.slave.utils.AppiumLocalService;
+import com.lampo.device_lab.slave.utils.AppiumLogIndex;
+import com.lampo.device_lab.slave.utils.CommandLineExecutor;
+import com.lampo.device_lab.slave.utils.PortAllocator;
+import com.lampo.device_lab.slave.utils.PortAllocator.PortLease;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class AppiumSupervisor {
+
+	private static final File NODE_CONFIG_PARENT = new File("node-config");
+	private static final long BACKOFF_INITIAL_IN_MSEC = 2000;
+	private static final int FAILED_PROBES_BEFORE_RESTART = 2;
+	private static final long PORT_LEAK_AGE_IN_MSEC = TimeUnit.MINUTES.toMillis(5);
+
+	@Value("${appium.parallel_starts:4}")
+	private int parallelStarts;
+
+	@Value("${appium.restart_backoff_max_in_sec:300}")
+	private long maxBackoffInSec;
+
+	private final Map<String, Server> servers = new ConcurrentHashMap<>();
+	private final AtomicInteger threadCount = new AtomicInteger();
+	private final AtomicBoolean indexing = new AtomicBoolean();
+	private ExecutorService starters;
+
+	/* probes and log indexing block for seconds, the shared scheduler thread must not */
+	private ExecutorService workers;
+
+	@PostConstruct
+	public void init() {
+		starters = Executors.newFixedThreadPool(Math.max(1, parallelStarts), r -> {
+			Thread thread = new Thread(r, "appium-starter-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		workers = Executors.newFixedThreadPool(Math.max(2, parallelStarts), r -> {
+			Thread thread = new Thread(r, "appium-supervisor-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		AppiumLocalService.addExitListener(this::onExit);
+
+		/* servers left behind by a previous run are not owned by this jvm */
+		CommandLineExecutor.killAppiumProcesses();
+	}
+
+	@PreDestroy
+	public void destroy() {
+		starters.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	/**
+	 * keeps an appium server running for the device, servers are started in the
+	 * background so the caller never waits for node to come up
+	 *
+	 * @param property {@link IDeviceProperty}
+	 * @param hubHost  host of the grid the node registers with
+	 */
+	public void ensureRunning(@NonNull IDeviceProperty property, @NonNull String hubHost) {
+		while (true) {
+			Server server = servers.computeIfAbsent(property.getDeviceId(), e -> new Server());
+			synchronized (server) {
+				if (servers.get(property.getDeviceId()) != server) {
+					/* the start in flight finished and dropped the entry meanwhile */
+					continue;
+				}
+				server.property = property;
+				server.hubHost = hubHost;
+				if (server.state.compareAndSet(State.STOPPED, State.STARTING)) {
+					/* the device came back before the start in flight finished, let that start serve it */
+					log.info("device '{}' reconnected while its appium server was starting", property.getDeviceId());
+					return;
+				}
+			}
+			schedule(server, State.NEW);
+			return;
+		}
+	}
+
+	/**
+	 * stops supervising devices which are no longer connected, their servers are
+	 * stopped in the background. A device whose server is still starting keeps a
+	 * stopped entry until that start finishes, so a reconnect cannot start a
+	 * second server for it
+	 *
+	 * @param deviceIds ids of connected devices
+	 */
+	public void retainAll(@NonNull Collection<String> deviceIds) {
+		servers.entrySet().removeIf(entry -> {
+			if (deviceIds.contains(entry.getKey())) {
+				return false;
+			}
+			Server server = entry.getValue();
+			synchronized (server) {
+				State previous = server.state.getAndSet(State.STOPPED);
+				if (previous == State.STARTING || previous == State.STOPPED) {
+					/* a start in flight stops its own server and drops the entry once it finishes */
+					return false;
+				}
+				stopAsync(entry.getKey());
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * probes ready servers and restarts the ones that stopped answering, failed
+	 * starts are retried once their backoff elapses, leaked ports are reclaimed
+	 * and the logs of running servers indexed. probes and indexing run on the
+	 * supervisor's own threads, a probe still in flight is not repeated
+	 */
+	@Scheduled(fixedDelayString = "${appium.supervise_interval_in_msec:5000}")
+	public void supervise() {
+		long now = System.currentTimeMillis();
+		servers.forEach((deviceId, server) -> {
+			State state = server.state.get();
+			if (state == State.READY) {
+				if (server.probing.compareAndSet(false, true)) {
+					execute(deviceId, () -> probe(deviceId, server), () -> server.probing.set(false));
+				}
+			} else if (state == State.BACKOFF && now >= server.nextAttemptAt) {
+				schedule(server, State.BACKOFF);
+			}
+		});
+		PortAllocator.reclaimLeaked(PORT_LEAK_AGE_IN_MSEC);
+		if (indexing.compareAndSet(false, true)) {
+			execute("all devices",
+					() -> AppiumLocalService.getRunningAppiumSessions().keySet().forEach(AppiumLogIndex::refresh),
+					() -> indexing.set(false));
+		}
+	}
+
+	private void probe(String deviceId, Server server) {
+		Integer port = server.port;
+		if (port == null || server.state.get() != State.READY) {
+			return;
+		}
+		if (AppiumLocalService.Builder.isReady(port)) {
+			server.failedProbes = 0;
+		} else if (++server.failedProbes >= FAILED_PROBES_BEFORE_RESTART) {
+			log.warn("appium server of device '{}' on port '{}' is not responding, restarting it", deviceId, port);
+			schedule(server, State.READY);
+		}
+	}
+
+	private void execute(String deviceId, Runnable task, Runnable done) {
+		try {
+			workers.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					done.run();
+				}
+			});
+		} catch (Exception ex) {
+			done.run();
+			log.error("{} occurred while supervising appium server of '{}' with message '{}'",
+					ex.getClass().getName(), deviceId, ex.getMessage());
+		}
+	}
+
+	/*
+	 * a crashed server is restarted right away instead of waiting for probes to
+	 * fail, exits during a start are handled by the start itself
+	 */
+	private void onExit(AppiumLocalService.AppiumProcess process) {
+		if (process.isStopRequested()) {
+			return;
+		}
+		Server server = servers.get(process.getDeviceId());
+		if (server != null && server.state.get() == State.READY) {
+			log.warn("appium server of device '{}' crashed, restarting it", process.getDeviceId());
+			schedule(server, State.READY);
+		}
+	}
+
+	/**
+	 * @return state of the supervised appium servers
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Integer> states = new TreeMap<>();
+		Map<String, Object> devices = new TreeMap<>();
+		servers.forEach((deviceId, server) -> {
+			State state = server.state.get();
+			states.merge(state.name().toLowerCase(), 1, Integer::sum);
+			Map<String, Object> device = new LinkedHashMap<>();
+			device.put("state", state.name().toLowerCase());
+			AppiumLocalService.AppiumProcess process = AppiumLocalService.getProcess(deviceId);
+			device.put("pid", process == null ? null : process.getPid());
+			device.put("process_state", process == null ? null : process.getState().name().toLowerCase());
+			device.put("port", server.port);
+			device.put("starts", server.starts);
+			device.put("failed_attempts", server.attempts);
+			devices.put(deviceId, device);
+		});
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("states", states);
+		stats.put("devices", devices);
+		return stats;
+	}
+
+	private void schedule(Server server, State expected) {
+		if (!server.state.compareAndSet(expected, State.STARTING)) {
+			return;
+		}
+		try {
+			starters.execute(() -> start(server));
+		} catch (Exception ex) {
+			server.state.compareAndSet(State.STARTING, expected);
+			log.error("{} occurred while scheduling appium start of device '{}' with message '{}'",
+					ex.getClass().getName(), server.property.getDeviceId(), ex.getMessage());
+		}
+	}
+
+	private void start(Server server) {
+
+		IDeviceProperty property = server.property;
+		String deviceId = property.getDeviceId();
+		URL url = null;
+		PortLease ports = null;
+		try {
+			if (server.port != null) {
+				AppiumLocalService.builder().deviceId(deviceId).stop();
+			}
+
+			ports = PortAllocator.acquire(deviceId);
+			int freePort = ports.getPort();
+			server.port = freePort;
+
+			String ip = getLocalNetworkIP();
+			Capability caps = new Capability().setBrowserName(property.isAndroid() ? "chrome" : "safari")
+					.setVersion(property.getSdkVersion())
+					.setUDID(deviceId)
+					.setDeviceName(property.getDeviceName())
+					.setPlatform(property.isAndroid() ? "android" : "ios")
+					.setRealDevice(property.isRealDevice())
+					.setSlaveIp(ip)
+					.setAutomationName(property.isAndroid() ? "uiautomator2" : "xcuitest");
+
+			GridConfiguration gridConfiguration = new GridConfiguration(server.hubHost, ip, freePort);
+			File nodeConfig = new File(NODE_CONFIG_PARENT, deviceId + ".json");
+			new GridNodeRegistrationRequest(caps, gridConfiguration).saveToFile(nodeConfig);
+
+			server.starts++;
+			url = AppiumLocalService.builder().isAndroid(property.isAndroid()).deviceId(deviceId).ip(ip)
+					.nodeConfig(nodeConfig).ports(ports).start();
+		} catch (Exception ex) {
+			if (ports != null) {
+				ports.release();
+			}
+			log.error("{} occurred while starting appium server of device '{}' with message '{}'",
+					ex.getClass().getName(), deviceId, ex.getMessage());
+		}
+
+		synchronized (server) {
+			if (url != null) {
+				server.attempts = 0;
+				server.failedProbes = 0;
+				if (server.state.compareAndSet(State.STARTING, State.READY)) {
+					log.info(
+							"------- registering device '{}' running appium session on port '{}' to grid '{}' ----------",
+							deviceId, server.port, server.hubHost);
+					return;
+				}
+			} else {
+				long backoff = Math.min(BACKOFF_INITIAL_IN_MSEC << Math.min(server.attempts, 16),
+						TimeUnit.SECONDS.toMillis(maxBackoffInSec));
+				server.attempts++;
+				server.nextAttemptAt = System.currentTimeMillis() + backoff;
+				if (server.state.compareAndSet(State.STARTING, State.BACKOFF)) {
+					log.error("unable to start appium server of device '{}', retrying in '{} ms'", deviceId, backoff);
+					return;
+				}
+			}
+		}
+
+		/*
+		 * the device went away while its server was starting. The entry is kept until
+		 * the server is stopped, so no other start can run for the device meanwhile
+		 */
+		stop(deviceId);
+		synchronized (server) {
+			if (server.state.get() == State.STOPPED) {
+				servers.remove(deviceId, server);
+				return;
+			}
+		}
+		/* the device came back while its server was being stopped */
+		start(server);
+	}
+
+	private void stopAsync(String deviceId) {
+		try {
+			starters.execute(() -> stop(deviceId));
+		} catch (Exception ex) {
+			log.error("{} occurred while stopping appium server of device '{}' with message '{}'",
+					ex.getClass().getName(), deviceId, ex.getMessage());
+		}
+	}
+
+	private void stop(String deviceId) {
+		try {
+			AppiumLocalService.builder().deviceId(deviceId).stop();
+		} catch (Exception ex) {
+			log.error("{} occurred while stopping appium server of device '{}' with message '{}'",
+					ex.getClass().getName(), deviceId, ex.getMessage());
+		}
+	}
+
+	private enum State {
+		NEW, STARTING, READY, BACKOFF, STOPPED
+	}
+
+	private static class Server {
+
+		private final AtomicReference<State> state = new AtomicReference<>(State.NEW);
+		private final AtomicBoolean probing = new AtomicBoolean();
+		private volatile IDeviceProperty property;
+		private volatile String hubHost;
+		private volatile Integer port;
+		private volatile int starts;
+		private volatile int attempts;
+		private volatile int failedProbes;
+		private volatile long nextAttemptAt;
+	}
+}
@@ -0,0 +1,218 @@
+package com.lampo.device_lab.slave.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import com.lampo.device_lab.slave.utils.AppiumLocalService;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+@Service
+public class ArtifactService {
+
+	private static final Pattern REQUEST_ID = Pattern.compile("[\\w.-]+");
+	private static final Pattern RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+	static final long[] UNSATISFIABLE = new long[0];
+
+	/* tomcat only hands larger files to sendfile, smaller ones are copied with transferTo */
+	private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	/**
+	 * writes the log or video of the request, a single byte range is honoured and
+	 * the file is sent by the kernel where the connector supports it
+	 *
+	 * @param type      <code>logs</code> or <code>videos</code>
+	 * @param requestId {@link String}
+	 */
+	public void stream(@NonNull String type, @NonNull String requestId, @NonNull HttpServletRequest request,
+			@NonNull HttpServletResponse response) throws IOException {
+
+		Path file = resolve(type, requestId);
+		if (file == null || !Files.isRegularFile(file)) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		stream(file, "videos".equals(type) ? "video/mp4" : "text/plain", request, response);
+	}
+
+	void stream(Path file, String contentType, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+
+		long length = Files.size(file);
+		String etag = String.format("\"%s-%s\"", length, Files.getLastModifiedTime(file).toMillis());
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setHeader(HttpHeaders.ETAG, etag);
+		response.setContentType(contentType);
+
+		/* a stale if-range validator gets the whole file */
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		long[] range = ifRange == null || ifRange.equals(etag)
+				? parseRange(request.getHeader(HttpHeaders.RANGE), length)
+				: null;
+		if (range == UNSATISFIABLE) {
+			response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+
+		long start = 0;
+		long end = length - 1;
+		if (range != null) {
+			start = range[0];
+			end = range[1];
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader(HttpHeaders.CONTENT_RANGE, String.format("bytes %s-%s/%s", start, end, length));
+		}
+
+		long count = end - start + 1;
+		response.setContentLengthLong(count);
+		if ("HEAD".equalsIgnoreCase(request.getMethod()) || count <= 0) {
+			return;
+		}
+
+		if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, file.toFile().getCanonicalPath());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, end + 1);
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			OutputStream out = response.getOutputStream();
+			WritableByteChannel target = Channels.newChannel(out);
+			long position = start;
+			long remaining = count;
+			while (remaining > 0) {
+				long transferred = channel.transferTo(position, remaining, target);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+				remaining -= transferred;
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * @param header value of the range header, may be <code>null</code>
+	 * @param length size of the file
+	 * @return first and last byte of a single range, <code>null</code> when the
+	 *         whole file is sent and {@link #UNSATISFIABLE} when no byte of the
+	 *         file is in range
+	 */
+	static long[] parseRange(String header, long length) {
+		Matcher matcher = header == null ? null : RANGE.matcher(header.trim());
+		/* multiple ranges and other units are answered with the whole file */
+		if (matcher == null || !matcher.matches()) {
+			return null;
+		}
+		String first = matcher.group(1);
+		String last = matcher.group(2);
+		if (first.isEmpty() && last.isEmpty()) {
+			return null;
+		}
+		long start;
+		long end;
+		if (first.isEmpty()) {
+			long suffix = parse(last);
+			if (suffix == 0) {
+				return UNSATISFIABLE;
+			}
+			start = Math.max(0, length - suffix);
+			end = length - 1;
+		} else {
+			start = parse(first);
+			end = last.isEmpty() ? length - 1 : Math.min(parse(last), length - 1);
+		}
+		return start >= length || start > end ? UNSATISFIABLE : new long[] { start, end };
+	}
+
+	/* bounds too long for a long lie beyond any file anyway */
+	private static long parse(String digits) {
+		return digits.length() > 18 ? Long.MAX_VALUE : Long.parseLong(digits);
+	}
+
+	private Path resolve(String type, String requestId) {
+		if (!REQUEST_ID.matcher(requestId).matches() || requestId.contains("..")) {
+			log.warn("rejecting artifact request for invalid request id '{}'", requestId);
+			return null;
+		}
+		if ("logs".equals(type)) {
+			return Paths.get(AppiumLocalService.Builder.LOG_DIRECTORY, "session-logs", requestId + ".log");
+		} else if ("videos".equals(type)) {
+			return Paths.get(AppiumLocalService.Builder.LOG_DIRECTORY, "session-videos", requestId + ".mp4");
+		}
+		return null;
+	}
+}
@@ -1,18 +1,25 @@
 package com.lampo.device_lab.slave.service;
 
-import static com.lampo.device_lab.slave.utils.ADBUtilities.getConnectedDevices;
 import static com.lampo.device_lab.slave.utils.ADBUtilities.uninstallApp;
 import static com.lampo.device_lab.slave.utils.AppiumLocalService.getRunningAppiumSessions;
 import static com.lampo.device_lab.slave.utils.CommonUtilities.getLocalNetworkIP;
 import static com.lampo.device_lab.slave.utils.CommonUtilities.isNotBlank;
 
-import java.io.File;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -28,18 +35,15 @@ import org.springframework.web.client.RestTemplate;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
-import com.lampo.device_lab.slave.model.Capability;
+import com.lampo.device_lab.slave.model.ADBDeviceEvent;
 import com.lampo.device_lab.slave.model.ClearDataRequest;
 import com.lampo.device_lab.slave.model.DeviceManagerException;
 import com.lampo.device_lab.slave.model.DeviceUpdateRequest;
-import com.lampo.device_lab.slave.model.GridConfiguration;
-import com.lampo.device_lab.slave.model.GridNodeRegistrationRequest;
 import com.lampo.device_lab.slave.model.IDeviceProperty;
 import com.lampo.device_lab.slave.model.OpenSTFHeldRequest;
 import com.lampo.device_lab.slave.model.UninstallRequest;
 import com.lampo.device_lab.slave.utils.ADBUtilities;
 import com.lampo.device_lab.slave.utils.AppiumLocalService;
-import com.lampo.device_lab.slave.utils.AppiumLocalService.Builder;
 import com.lampo.device_lab.slave.utils.CommandLineExecutor;
 import com.lampo.device_lab.slave.utils.IOSUtilities;
 
@@ -108,7 +112,23 @@ public class DeviceSyncProcessor {
 	private static Collection<String> androidDeviceIds = new TreeSet<>();
 	private static Collection<String> iosDeviceIds = new TreeSet<>();
 
-	private static final File NODE_CONFIG_PARENT = new File("node-config");
+	private final String epoch = UUID.randomUUID().toString();
+	private final AtomicBoolean fullSyncRequested = new AtomicBoolean(true);
+
+	/* android properties are probed once per attach and refreshed rarely after that */
+	private static final long PROPERTY_REFRESH_IN_MSEC = TimeUnit.MINUTES.toMillis(30);
+	private final Map<String, ProbedProperty> androidProperties = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean syncScheduled = new AtomicBoolean();
+	private final ExecutorService syncTrigger = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "device-sync-trigger");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/* guarded by LOCK */
+	private long sequence;
+	private Map<String, IDeviceProperty> lastSent = new HashMap<>();
 
 	@Value("${master.host}")
 	private String hubHost;
@@ -122,6 +142,12 @@ public class DeviceSyncProcessor {
 	@Autowired
 	private OpenSTFService openSTFService;
 
+	@Autowired
+	private ADBDeviceTracker deviceTracker;
+
+	@Autowired
+	private AppiumSupervisor appiumSupervisor;
+
 	@PostConstruct
 	public void fixHubHost() {
 		if (hubHost.contains("//")) {
@@ -132,6 +158,54 @@ public class DeviceSyncProcessor {
 		}
 	}
 
+	@PostConstruct
+	public void trackDevices() {
+		deviceTracker.addListener(this::onDeviceEvent);
+	}
+
+	/**
+	 * syncs right away instead of waiting for the next cron tick, events arriving
+	 * while a sync is pending are coalesced into it
+	 */
+	private void onDeviceEvent(ADBDeviceEvent event) {
+		if (!event.isOnline()) {
+			androidProperties.remove(event.getDeviceId());
+		}
+		if (syncScheduled.compareAndSet(false, true)) {
+			syncTrigger.execute(() -> {
+				syncScheduled.set(false);
+				try {
+					updateDeviceInfoToMaster();
+				} catch (Exception ex) {
+					log.error("{} occurred while syncing devices after adb event with message '{}'",
+							ex.getClass().getName(), ex.getMessage());
+				}
+			});
+		}
+	}
+
+	private Collection<IDeviceProperty> getAndroidDevices() {
+		List<String> online = deviceTracker.isTracking() ? deviceTracker.getOnlineDevices()
+				: ADBUtilities.connectedDevices();
+		androidProperties.keySet().retainAll(online);
+
+		long now = System.currentTimeMillis();
+		List<IDeviceProperty> devices = new ArrayList<>();
+		for (String deviceId : online) {
+			ProbedProperty probed = androidProperties.get(deviceId);
+			if (probed == null || now - probed.probedAt > PROPERTY_REFRESH_IN_MSEC) {
+				IDeviceProperty property = ADBUtilities.getDeviceProperty(deviceId);
+				if (property == null) {
+					continue;
+				}
+				probed = new ProbedProperty(property, now);
+				androidProperties.put(deviceId, probed);
+			}
+			devices.add(probed.property);
+		}
+		return devices;
+	}
+
 	@Scheduled(cron = "${cron.stf.device_sync}")
 	public void updateSTFDeviceStatusToMaster() {
 
@@ -148,15 +222,30 @@ public class DeviceSyncProcessor {
 
 			long start = System.currentTimeMillis();
 
-			DeviceUpdateRequest request = new DeviceUpdateRequest();
-			request.setIp(getLocalNetworkIP());
+			DeviceUpdateRequest snapshot = new DeviceUpdateRequest();
+			snapshot.setIp(getLocalNetworkIP());
+
+			snapshot.setAndroidDevices(getAndroidDevices());
+			snapshot.setIosDevices(IOSUtilities.getConnectedDevices().values());
 
-			request.setAndroidDevices(getConnectedDevices().values());
-			request.setIosDevices(IOSUtilities.getConnectedDevices().values());
+			rePopulateDeviceIds(snapshot);
 
-			rePopulateDeviceIds(request);
+			boolean full = fullSyncRequested.getAndSet(false);
+			DeviceUpdateRequest request = full ? snapshot : toDelta(snapshot);
+			request.setEpoch(epoch);
+			request.setSequence(sequence + 1);
+			request.setFullSnapshot(full);
 
-			rabbitTemplate.convertAndSend(DEVICE_UPDATE_QUEUE_NAME, request);
+			try {
+				rabbitTemplate.convertAndSend(DEVICE_UPDATE_QUEUE_NAME, request);
+			} catch (RuntimeException ex) {
+				if (full) {
+					fullSyncRequested.set(true);
+				}
+				throw ex;
+			}
+			sequence++;
+			lastSent = toMap(snapshot);
 
 			long timeTaken = System.currentTimeMillis() - start;
 			log.debug("***** {} ms taken to send data {} *****", timeTaken, getEssentialInfo(request));
@@ -167,6 +256,34 @@ public class DeviceSyncProcessor {
 		}
 	}
 
+	/**
+	 * makes the next sync send every connected device instead of a delta
+	 */
+	public void requestFullSync() {
+		fullSyncRequested.set(true);
+	}
+
+	private DeviceUpdateRequest toDelta(@NonNull DeviceUpdateRequest snapshot) {
+		Map<String, IDeviceProperty> current = toMap(snapshot);
+
+		DeviceUpdateRequest delta = new DeviceUpdateRequest();
+		delta.setIp(snapshot.getIp());
+		delta.setAndroidDevices(snapshot.getAndroidDevices().stream()
+				.filter(e -> !e.equals(lastSent.get(e.getDeviceId()))).collect(Collectors.toList()));
+		delta.setIosDevices(snapshot.getIosDevices().stream()
+				.filter(e -> !e.equals(lastSent.get(e.getDeviceId()))).collect(Collectors.toList()));
+		delta.setRemovedDevices(lastSent.keySet().stream().filter(e -> !current.containsKey(e))
+				.collect(Collectors.toList()));
+		return delta;
+	}
+
+	private Map<String, IDeviceProperty> toMap(@NonNull DeviceUpdateRequest request) {
+		Map<String, IDeviceProperty> map = new HashMap<>();
+		Stream.of(request.getAndroidDevices(), request.getIosDevices()).flatMap(Collection::stream)
+				.forEach(e -> map.put(e.getDeviceId(), e));
+		return map;
+	}
+
 	private String getEssentialInfo(@NonNull DeviceUpdateRequest request) {
 
 		List<String> devices = Stream.of(request.getAndroidDevices(), request.getIosDevices())
@@ -175,15 +292,18 @@ public class DeviceSyncProcessor {
 
 		int total = request.getIosDevices().size() + request.getAndroidDevices().size();
 		int android = request.getAndroidDevices().size();
-		return String.format("ip: %s, total devices: %s, android: %s, ios: %s, devices info: %s ", request.getIp(),
-				total, android, total - android, devices);
+		return String.format(
+				"ip: %s, sequence: %s, full: %s, total devices: %s, android: %s, ios: %s, removed: %s, devices info: %s ",
+				request.getIp(), request.getSequence(), request.isFullSnapshot(), total, android, total - android,
+				request.getRemovedDevices(), devices);
 	}
 
 	private void rePopulateDeviceIds(@NonNull DeviceUpdateRequest request) {
 		androidDeviceIds.clear();
 		iosDeviceIds.clear();
 
-		Stream.of(request.getAndroidDevices(), request.getIosDevices()).flatMap(Collection::stream).parallel()
+		/* servers are started in the background, so registering never waits for node */
+		Stream.of(request.getAndroidDevices(), request.getIosDevices()).flatMap(Collection::stream)
 				.forEach(this::startAndRegisterSession);
 
 		cleanUpSessions(request);
@@ -195,6 +315,8 @@ public class DeviceSyncProcessor {
 		Set<String> allDevices = Stream.concat(androidDeviceIds.stream(), iosDeviceIds.stream())
 				.collect(Collectors.toSet());
 
+		appiumSupervisor.retainAll(allDevices);
+
 		Map<String, Integer> sessions = getRunningAppiumSessions();
 
 		if (sessions == null || sessions.isEmpty()) {
@@ -206,10 +328,7 @@ public class DeviceSyncProcessor {
 			diff.forEach(e -> {
 				int appiumPort = sessions.get(e);
 				log.info("--------- unregistering appium session of device '{}' running on port '{}'", e, appiumPort);
-				String cmd = String.format(
-						"ps -ef | grep -i '%s' | grep -Ei 'node.*appium' | grep -v grep | awk '{print $2}' | tr -s '\\n' ' ' | xargs kill -9",
-						e);
-				CommandLineExecutor.exec(cmd);
+				AppiumLocalService.builder().deviceId(e).stop();
 				removingDeviceOnMaster(e, request.getIp());
 			});
 		}
@@ -228,7 +347,11 @@ public class DeviceSyncProcessor {
 	}
 
 	public void restartAllDevices() {
-		Stream.of(androidDeviceIds, iosDeviceIds).flatMap(Collection::stream).parallel().forEach(this::restartDevice);
+		CompletableFuture.allOf(Stream.of(androidDeviceIds, iosDeviceIds).flatMap(Collection::stream)
+				.map(e -> CommandLineExecutor.submit(e, () -> {
+					restartDevice(e);
+					return null;
+				})).toArray(CompletableFuture[]::new)).join();
 	}
 
 	public void restartDevice(@NonNull String deviceId) {
@@ -239,43 +362,9 @@ public class DeviceSyncProcessor {
 		}
 	}
 
-	private synchronized void startAndRegisterSession(@NonNull IDeviceProperty property) {
-
+	private void startAndRegisterSession(@NonNull IDeviceProperty property) {
 		(property.isAndroid() ? androidDeviceIds : iosDeviceIds).add(property.getDeviceId());
-
-		Map<String, Integer> sessions = getRunningAppiumSessions();
-
-		if (!sessions.keySet().contains(property.getDeviceId())) {
-
-			Builder builder = AppiumLocalService.builder();
-
-			int freePort = builder.findFreePort();
-
-			String ip = getLocalNetworkIP();
-
-			Capability caps = new Capability().setBrowserName(property.isAndroid() ? "chrome" : "safari")
-					.setVersion(property.getSdkVersion())
-					.setUDID(property.getDeviceId())
-					.setDeviceName(property.getDeviceName())
-					.setPlatform(property.isAndroid() ? "android" : "ios")
-					.setRealDevice(property.isRealDevice())
-					.setSlaveIp(ip)
-					.setAutomationName(property.isAndroid() ? "uiautomator2" : "xcuitest");
-
-			GridConfiguration gridConfiguration = new GridConfiguration(hubHost, ip, freePort);
-			File nodeConfig = new File(NODE_CONFIG_PARENT, property.getDeviceId() + ".json");
-
-			GridNodeRegistrationRequest request = new GridNodeRegistrationRequest(caps, gridConfiguration);
-			request.saveToFile(nodeConfig);
-
-			if (null != builder.isAndroid(property.isAndroid()).deviceId(property.getDeviceId()).ip(ip)
-					.nodeConfig(nodeConfig).port(freePort).start()) {
-
-				log.info("------- registering device '{}' running appium session on port '{}' to grid '{}' ----------",
-						property.getDeviceId(), freePort, hubHost);
-			}
-		}
-
+		appiumSupervisor.ensureRunning(property, hubHost);
 	}
 
 	public boolean isConnectedDevice(@NonNull String deviceId) {
@@ -310,4 +399,15 @@ public class DeviceSyncProcessor {
 		}
 	}
 
+	private static class ProbedProperty {
+
+		private final IDeviceProperty property;
+		private final long probedAt;
+
+		private ProbedProperty(IDeviceProperty property, long probedAt) {
+			this.property = property;
+			this.probedAt = probedAt;
+		}
+	}
+
 }
@@ -13,6 +13,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
@@ -25,6 +26,7 @@ import org.springframework.stereotype.Component;
 import com.lampo.device_lab.slave.model.IDeviceProperty;
 import com.lampo.device_lab.slave.utils.ADBUtilities;
 import com.lampo.device_lab.slave.utils.AppiumLocalService;
+import com.lampo.device_lab.slave.utils.CommandLineExecutor;
 import com.lampo.device_lab.slave.utils.STFServiceBuilder;
 
 import lombok.SneakyThrows;
@@ -198,12 +200,12 @@ public class MaintenanceService {
 
 			AtomicBoolean found = new AtomicBoolean(false);
 			try {
-				emulatorsList.stream().parallel().forEach(str -> {
-					if (!runningEmulators.contains(str)) {
-						ADBUtilities.restartEmulator(EMULATORS_NAME_PREFIX + str);
-						found.set(true);
-					}
-				});
+				CompletableFuture.allOf(emulatorsList.stream().filter(str -> !runningEmulators.contains(str))
+						.map(str -> CommandLineExecutor.submit(EMULATORS_NAME_PREFIX + str, () -> {
+							ADBUtilities.restartEmulator(EMULATORS_NAME_PREFIX + str);
+							found.set(true);
+							return null;
+						})).toArray(CompletableFuture[]::new)).join();
 			} finally {
 				if (found.get()) {
 					new Thread(() -> {
@@ -0,0 +1,318 @@
+package com.lampo.device_lab.slave.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import lombok.NonNull;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+public final class ADBClient {
+
+	public static final String DEFAULT_HOST = "127.0.0.1";
+	public static final int DEFAULT_PORT = 5037;
+
+	private static final ADBClient LOCAL = new ADBClient(DEFAULT_HOST, DEFAULT_PORT);
+
+	private static final int CONNECT_TIMEOUT_IN_MSEC = 2000;
+	private static final int READ_TIMEOUT_IN_MSEC = 60000;
+	private static final int MAX_CONNECTIONS = 16;
+	private static final long UNAVAILABLE_BACKOFF_IN_MSEC = 5000;
+	private static final int MAX_SYNC_PATH_LENGTH = 1024;
+
+	private final String host;
+	private final int port;
+
+	/*
+	 * the adb server closes a connection once the service it was switched to
+	 * finishes, so connections cannot be reused and concurrency is bounded instead
+	 */
+	private final Semaphore permits = new Semaphore(MAX_CONNECTIONS, true);
+
+	private volatile long unavailableUntil;
+
+	public ADBClient(@NonNull String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * @return client of the adb server running on this machine
+	 */
+	public static ADBClient local() {
+		return LOCAL;
+	}
+
+	/**
+	 * @return <code>false</code> for a short while after the server refused a
+	 *         connection, so callers can fall back without paying for the timeout
+	 *         again
+	 */
+	public boolean isAvailable() {
+		return System.currentTimeMillis() >= unavailableUntil;
+	}
+
+	/**
+	 * @return serial to state of every device known to the server, in the order
+	 *         reported
+	 */
+	public Map<String, String> devices() throws IOException {
+		return withPermit(() -> {
+			try (Socket socket = connect()) {
+				DataInputStream in = input(socket);
+				request(socket, in, "host:devices");
+				return parseDevices(readMessage(in));
+			}
+		});
+	}
+
+	/**
+	 * runs the command on the device and returns everything it printed, the exit
+	 * code is not available over the legacy shell service
+	 */
+	public String shell(@NonNull String serial, @NonNull String command) throws IOException {
+		return withPermit(() -> {
+			try (Socket socket = connect()) {
+				DataInputStream in = input(socket);
+				request(socket, in, "host:transport:" + serial);
+				request(socket, in, "shell:" + command);
+				return new String(readFully(in), StandardCharsets.UTF_8);
+			}
+		});
+	}
+
+	public void reboot(@NonNull String serial) throws IOException {
+		withPermit(() -> {
+			try (Socket socket = connect()) {
+				DataInputStream in = input(socket);
+				request(socket, in, "host:transport:" + serial);
+				request(socket, in, "reboot:");
+				readFully(in);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * reads a file from the device over the sync service
+	 */
+	public byte[] pull(@NonNull String serial, @NonNull String remotePath) throws IOException {
+		byte[] path = remotePath.getBytes(StandardCharsets.UTF_8);
+		if (path.length > MAX_SYNC_PATH_LENGTH) {
+			throw new IOException(String.format("remote path '%s' is too long", remotePath));
+		}
+		return withPermit(() -> {
+			try (Socket socket = connect()) {
+				DataInputStream in = input(socket);
+				request(socket, in, "host:transport:" + serial);
+				request(socket, in, "sync:");
+
+				OutputStream out = socket.getOutputStream();
+				out.write(syncHeader("RECV", path.length));
+				out.write(path);
+				out.flush();
+
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				byte[] header = new byte[8];
+				while (true) {
+					in.readFully(header);
+					String id = new String(header, 0, 4, StandardCharsets.US_ASCII);
+					int length = ByteBuffer.wrap(header, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+					if ("DONE".equals(id)) {
+						break;
+					}
+					if (length < 0) {
+						throw new IOException(String.format("invalid sync chunk length '%s'", length));
+					}
+					byte[] data = new byte[length];
+					in.readFully(data);
+					if ("FAIL".equals(id)) {
+						throw new IOException(String.format("unable to pull '%s' : %s", remotePath,
+								new String(data, StandardCharsets.UTF_8)));
+					}
+					if (!"DATA".equals(id)) {
+						throw new IOException(String.format("unexpected sync response '%s'", id));
+					}
+					content.write(data);
+				}
+				out.write(syncHeader("QUIT", 0));
+				out.flush();
+				return content.toByteArray();
+			}
+		});
+	}
+
+	/**
+	 * opens a raw connection for long lived services such as
+	 * <code>host:track-devices</code>, the caller owns the socket and is not
+	 * bounded by the connection limit
+	 */
+	public Socket connect() throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_IN_MSEC);
+		} catch (IOException ex) {
+			socket.close();
+			unavailableUntil = System.currentTimeMillis() + UNAVAILABLE_BACKOFF_IN_MSEC;
+			throw ex;
+		}
+		socket.setSoTimeout(READ_TIMEOUT_IN_MSEC);
+		socket.setTcpNoDelay(true);
+		return socket;
+	}
+
+	/**
+	 * sends a length prefixed service request and waits for the server to accept
+	 * it
+	 */
+	public static void request(@NonNull Socket socket, @NonNull DataInputStream in, @NonNull String service)
+			throws IOException {
+		byte[] payload = service.getBytes(StandardCharsets.UTF_8);
+		OutputStream out = socket.getOutputStream();
+		out.write(String.format("%04x", payload.length).getBytes(StandardCharsets.US_ASCII));
+		out.write(payload);
+		out.flush();
+
+		String status = readString(in, 4);
+		if (!"OKAY".equals(status)) {
+			throw new IOException(String.format("adb server replied '%s' to '%s' : %s", status, service,
+					"FAIL".equals(status) ? readMessage(in) : ""));
+		}
+	}
+
+	public static DataInputStream input(@NonNull Socket socket) throws IOException {
+		return new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	}
+
+	/**
+	 * reads one message framed with a four digit hex length
+	 */
+	public static String readMessage(@NonNull DataInputStream in) throws IOException {
+		String length = readString(in, 4);
+		try {
+			return readString(in, Integer.parseInt(length, 16));
+		} catch (NumberFormatException ex) {
+			throw new IOException(String.format("invalid message length '%s'", length));
+		}
+	}
+
+	/**
+	 * parses the payload of <code>host:devices</code> and
+	 * <code>host:track-devices</code>
+	 */
+	public static Map<String, String> parseDevices(@NonNull String payload) {
+		Map<String, String> devices = new LinkedHashMap<>();
+		for (String line : payload.split("\n")) {
+			String[] parts = line.trim().split("\\s+");
+			if (parts.length >= 2) {
+				devices.put(parts[0], parts[1]);
+			}
+		}
+		return devices;
+	}
+
+	private <T> T withPermit(IOCall<T> call) throws IOException {
+		try {
+			if (!permits.tryAcquire(READ_TIMEOUT_IN_MSEC, TimeUnit.MILLISECONDS)) {
+				throw new IOException("timed out waiting for a free adb connection");
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for a free adb connection");
+		}
+		try {
+			return call.call();
+		} finally {
+			permits.release();
+		}
+	}
+
+	private static byte[] syncHeader(String id, int length) {
+		return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).put(id.getBytes(StandardCharsets.US_ASCII))
+				.putInt(length).array();
+	}
+
+	private static byte[] readFully(DataInputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static String readString(DataInputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		try {
+			in.readFully(bytes);
+		} catch (EOFException ex) {
+			throw new EOFException("adb server closed the connection");
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@FunctionalInterface
+	private interface IOCall<T> {
+		T call() throws IOException;
+	}
+}
@@ -7,6 +7,8 @@ import static com.lampo.device_lab.slave.utils.CommonUtilities.isBlank;
 import static com.lampo.device_lab.slave.utils.CommonUtilities.jsonToPojo;
 import static com.lampo.device_lab.slave.utils.CommonUtilities.splitLines;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -19,6 +21,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import com.google.gson.annotations.SerializedName;
@@ -92,32 +95,44 @@ public final class ADBUtilities {
 			.filter(e -> e.contains("."))
 			.collect(Collectors.joining("|"));
 
-	public static Map<String, IDeviceProperty> getConnectedDevices() {
-
-		return connectedDevices().stream().map(deviceId -> {
-			CommandLineResponse response = CommandLineExecutor
-					.exec(String.format("%s -s %s shell getprop | grep -Ei '%s'", ADB_EXECUTABLE, deviceId,
-							GREP_PATTERN));
-
-			if (response.getExitCode() == 0) {
-				AndroidDeviceProperty prop = jsonToPojo(transformToJson(response.getStdOut()),
-						AndroidDeviceProperty.class, true);
+	private static final Pattern PROPERTY_PATTERN = Pattern.compile(GREP_PATTERN, Pattern.CASE_INSENSITIVE);
 
-				String build = (prop.getBuildCharacteristics() == null) ? ""
-						: prop.getBuildCharacteristics().toLowerCase();
+	private static final ADBClient ADB = ADBClient.local();
 
-				prop.setRealDevice((build.contains("default") || !build.contains("emulator")));
-				prop.setDeviceId(deviceId);
-				prop.setMarketName(
-						(prop.getMarketName() == null && deviceId.toLowerCase().contains("emulator")) ? "Emulator"
-								: ((prop.getMarketName() == null) ? prop.getManufacturer() : prop.getMarketName()));
-
-				prop.setChromeVersion(getChromeVersion(deviceId));
+	public static Map<String, IDeviceProperty> getConnectedDevices() {
+		return connectedDevices().stream().map(ADBUtilities::getDeviceProperty).filter(Objects::nonNull)
+				.collect(Collectors.toMap(IDeviceProperty::getDeviceId, e -> e));
+	}
 
-				return prop;
-			}
-			return null;
-		}).filter(Objects::nonNull).collect(Collectors.toMap(IDeviceProperty::getDeviceId, e -> e));
+	/**
+	 * probes the properties of a single device
+	 *
+	 * @param deviceId {@link String}
+	 * @return {@link IDeviceProperty} or <code>null</code> when the device did not
+	 *         respond
+	 */
+	public static IDeviceProperty getDeviceProperty(@NonNull String deviceId) {
+		String properties = shell(deviceId, "getprop");
+
+		if (properties != null) {
+			properties = splitLines(properties).stream().filter(e -> PROPERTY_PATTERN.matcher(e).find())
+					.collect(Collectors.joining("\n"));
+			AndroidDeviceProperty prop = jsonToPojo(transformToJson(properties), AndroidDeviceProperty.class, true);
+
+			String build = (prop.getBuildCharacteristics() == null) ? ""
+					: prop.getBuildCharacteristics().toLowerCase();
+
+			prop.setRealDevice((build.contains("default") || !build.contains("emulator")));
+			prop.setDeviceId(deviceId);
+			prop.setMarketName(
+					(prop.getMarketName() == null && deviceId.toLowerCase().contains("emulator")) ? "Emulator"
+							: ((prop.getMarketName() == null) ? prop.getManufacturer() : prop.getMarketName()));
+
+			prop.setChromeVersion(getChromeVersion(deviceId));
+
+			return prop;
+		}
+		return null;
 	}
 
 	private static String getAndroidHome() {
@@ -137,12 +152,10 @@ public final class ADBUtilities {
 
 	public static String getAppVersion(@NonNull String deviceId, String appPackage) {
 
-		String cmd = String.format("%s -s %s shell dumpsys package '%s' | grep versionName | head -n 1 | cut -d'=' -f2",
-				ADB_EXECUTABLE, deviceId, appPackage);
-
-		CommandLineResponse response = CommandLineExecutor.exec(cmd);
-		if (response.getExitCode() == 0) {
-			String version = response.getStdOut().replaceAll("[^0-9\\.]", "");
+		String output = shell(deviceId, String.format("dumpsys package '%s'", appPackage));
+		if (output != null) {
+			String line = splitLines(output).stream().filter(e -> e.contains("versionName")).findFirst().orElse("");
+			String version = line.substring(line.indexOf('=') + 1).replaceAll("[^0-9\\.]", "");
 			log.debug("version of app '{}' installed on device '{}' => {}",
 					new Object[] { appPackage, deviceId, version });
 			return version;
@@ -152,12 +165,11 @@ public final class ADBUtilities {
 
 	public static String getMemory(@NonNull String deviceId) {
 
-		String cmd = String.format("%s -s %s shell cat /proc/meminfo | grep -i MemTotal | cut -d ' ' -f 9",
-				ADB_EXECUTABLE, deviceId);
-
-		CommandLineResponse response = CommandLineExecutor.exec(cmd);
-		if (response.getExitCode() == 0) {
-			double memory = extractNumbers(response.getStdOut()).doubleValue() / 1024000.0D;
+		String meminfo = readFile(deviceId, "/proc/meminfo");
+		if (meminfo != null) {
+			String total = splitLines(meminfo).stream().filter(e -> e.toLowerCase().contains("memtotal"))
+					.findFirst().orElse("");
+			double memory = extractNumbers(total).doubleValue() / 1024000.0D;
 			log.debug("memory of '{}' => {}", deviceId, Double.valueOf(memory));
 			return DECIMAL_FORMAT.format(memory);
 		}
@@ -195,48 +207,97 @@ public final class ADBUtilities {
 
 	public static Map<String, List<String>> getDevicesGroup() {
 		Map<String, List<String>> devices = new HashMap<>();
+		getDeviceStates().forEach((deviceId, state) -> devices
+				.computeIfAbsent(state.toLowerCase(), e -> new ArrayList<>()).add(deviceId));
+		return devices;
+	}
+
+	private static List<String> getDevices(String match) {
+		return getDeviceStates().entrySet().stream()
+				.filter(e -> isBlank(match) || e.getValue().toLowerCase().contains(match.toLowerCase()))
+				.map(Map.Entry::getKey).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return serial to state as reported by the adb server, the adb binary is
+	 *         only forked when the server cannot be reached
+	 */
+	private static Map<String, String> getDeviceStates() {
+		if (ADB.isAvailable()) {
+			try {
+				return ADB.devices();
+			} catch (IOException ex) {
+				log.debug("{} occurred while listing devices over adb server with message '{}'",
+						ex.getClass().getName(), ex.getMessage());
+			}
+		}
+		Map<String, String> devices = new HashMap<>();
 		CommandLineResponse response = CommandLineExecutor.exec(ADB_EXECUTABLE + " devices");
 		if (response.getExitCode() == 0) {
 			List<String> split = splitLines(response.getStdOut());
-			if (split.size() > 1) {
-				for (int i = 1; i < split.size(); i++) {
-					List<String> spl = Arrays.<String>stream(split.get(i).split("\\s+")).map(String::trim)
-							.filter(e -> !isBlank(e)).collect(Collectors.toList());
-					if (spl != null && spl.size() == 2) {
-						List<String> list = devices.getOrDefault(spl.get(1).trim(), new ArrayList<>());
-						list.add(spl.get(0));
-						devices.put(spl.get(1).toLowerCase(), list);
-					}
+			for (int i = 1; i < split.size(); i++) {
+				List<String> spl = Arrays.<String>stream(split.get(i).split("\\s+")).map(String::trim)
+						.filter(e -> !isBlank(e)).collect(Collectors.toList());
+				if (spl.size() == 2) {
+					devices.put(spl.get(0), spl.get(1));
 				}
 			}
 		}
 		return devices;
 	}
 
-	private static List<String> getDevices(String match) {
-		CommandLineResponse response = CommandLineExecutor
-				.exec(ADB_EXECUTABLE + " devices | tail -n +2 " + (isBlank(match) ? "" : ("| grep -i " + match)));
-		if (response.getExitCode() == 0) {
-			List<String> split = splitLines(response.getStdOut());
-			return split.stream()
-					.filter(e -> (e.contains(match) && !e.trim().isEmpty()))
-					.map(e -> e.split("\\s+")[0].trim())
-					.collect(Collectors.toList());
+	/**
+	 * runs the command over the adb server and forks the adb binary only when the
+	 * server cannot be reached
+	 *
+	 * @return output of the command or <code>null</code> when it could not be run
+	 */
+	private static String shell(@NonNull String deviceId, @NonNull String command) {
+		if (ADB.isAvailable()) {
+			try {
+				return ADB.shell(deviceId, command).trim();
+			} catch (IOException ex) {
+				log.debug("{} occurred while running '{}' on device '{}' with message '{}'",
+						ex.getClass().getName(), command, deviceId, ex.getMessage());
+				if (ADB.isAvailable()) {
+					/* the server is up but refused, the adb binary would fail the same way */
+					return null;
+				}
+			}
 		}
-		return Collections.emptyList();
+		CommandLineResponse response = CommandLineExecutor.exec(deviceId,
+				String.format("%s -s %s shell %s", ADB_EXECUTABLE, deviceId, command));
+		return response.getExitCode() == 0 ? response.getStdOut() : null;
 	}
 
-	public static boolean clearUserData(String deviceId, @NonNull String appPackage) {
-		String cmd = String.format("%s -s %s shell pm clear %s", ADB_EXECUTABLE, deviceId, appPackage);
-		CommandLineResponse response = CommandLineExecutor.exec(cmd);
-		if (response.getExitCode() == 0) {
-			return response.getStdOut().toLowerCase().contains("success");
+	private static String readFile(@NonNull String deviceId, @NonNull String path) {
+		if (ADB.isAvailable()) {
+			try {
+				return new String(ADB.pull(deviceId, path), StandardCharsets.UTF_8);
+			} catch (IOException ex) {
+				log.debug("{} occurred while pulling '{}' from device '{}' with message '{}'",
+						ex.getClass().getName(), path, deviceId, ex.getMessage());
+			}
 		}
-		return false;
+		return shell(deviceId, "cat " + path);
+	}
+
+	public static boolean clearUserData(String deviceId, @NonNull String appPackage) {
+		String output = shell(deviceId, "pm clear " + appPackage);
+		return output != null && output.toLowerCase().contains("success");
 	}
 
 	public static void rebootDevice(@NonNull String deviceId) {
 		log.info("reboot android device '{}'", deviceId);
+		if (ADB.isAvailable()) {
+			try {
+				ADB.reboot(deviceId);
+				return;
+			} catch (IOException ex) {
+				log.debug("{} occurred while rebooting device '{}' over adb server with message '{}'",
+						ex.getClass().getName(), deviceId, ex.getMessage());
+			}
+		}
 		String cmd = String.format("%s -s %s shell reboot", ADB_EXECUTABLE, deviceId);
 		CommandLineExecutor.exec(cmd);
 	}
@@ -268,10 +329,9 @@ public final class ADBUtilities {
 		if (appPackages.length > 0) {
 			boolean status = true;
 			for (String appPackage : appPackages) {
-				String cmd = String.format("%s -s %s uninstall %s", ADB_EXECUTABLE, deviceId, appPackage);
-				CommandLineResponse response = CommandLineExecutor.exec(cmd);
-				if (response.getExitCode() == 0) {
-					status &= response.getStdOut().toLowerCase().contains("success");
+				String output = shell(deviceId, "pm uninstall " + appPackage);
+				if (output != null) {
+					status &= output.toLowerCase().contains("success");
 				}
 			}
 			return status;
@@ -6,45 +6,39 @@ import static com.lampo.device_lab.slave.utils.ADBUtilities.getChromeVersion;
 import static com.lampo.device_lab.slave.utils.ADBUtilities.restartADBServer;
 import static com.lampo.device_lab.slave.utils.ChromeDriverExecutableUtils.getChromeDriverExecutable;
 import static com.lampo.device_lab.slave.utils.CommandLineExecutor.exec;
-import static com.lampo.device_lab.slave.utils.CommandLineExecutor.killAppiumProcessesByDeviceId;
 import static com.lampo.device_lab.slave.utils.CommonUtilities.getLocalNetworkIP;
-import static com.lampo.device_lab.slave.utils.CommonUtilities.getMatches;
 import static com.lampo.device_lab.slave.utils.CommonUtilities.getProperty;
 import static com.lampo.device_lab.slave.utils.CommonUtilities.isBlank;
 import static com.lampo.device_lab.slave.utils.CommonUtilities.sleep;
-import static com.lampo.device_lab.slave.utils.CommonUtilities.splitLines;
-import static com.lampo.device_lab.slave.utils.ProcessUtilities.kill;
-import static java.lang.Runtime.getRuntime;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import com.lampo.device_lab.slave.model.CommandLineResponse;
 import com.lampo.device_lab.slave.service.DeviceSyncProcessor;
+import com.lampo.device_lab.slave.utils.PortAllocator.PortLease;
 
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -100,7 +94,21 @@ import lombok.extern.slf4j.Slf4j;
 public final class AppiumLocalService {
 
 	private static final String DEFAULT_ANDROID_HOME = "/opt/android-sdk";
-	private static final ReentrantLock LOCK = new ReentrantLock(true);
+
+	/* starts of different devices run in parallel, an adb restart waits for all of them */
+	private static final ReentrantReadWriteLock ADB_LOCK = new ReentrantReadWriteLock(true);
+	private static final Map<String, ReentrantLock> DEVICE_LOCKS = new ConcurrentHashMap<>();
+
+	/* every appium server started by this jvm, keyed by udid */
+	private static final Map<String, AppiumProcess> PROCESSES = new ConcurrentHashMap<>();
+	private static final List<Consumer<AppiumProcess>> EXIT_LISTENERS = new CopyOnWriteArrayList<>();
+	private static final long STOP_TIMEOUT_IN_SEC = 10;
+
+	private static final ExecutorService WATCHERS = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "appium-process-watcher");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private AppiumLocalService() {
 	}
@@ -109,39 +117,157 @@ public final class AppiumLocalService {
 		return new Builder();
 	}
 
-	public static synchronized Map<String, Integer> getRunningAppiumSessions() {
-		CommandLineResponse response = exec(
-				"ps -ef | grep node | grep appium | grep udid | grep -v grep | grep -v bash");
-		if (response.getExitCode() == 0) {
-			return splitLines(response.getStdOut()).stream().map(e -> {
-				List<String> udid = getMatches(e, "(?<=--udid ).*?\\s+");
-				List<String> port = getMatches(e, "(?<=--port ).*?(?=\\s+)");
-				return new SimpleEntry<>(udid.get(0).trim(), Integer.parseInt(port.get(0).trim()));
-			}).collect(Collectors.toMap(Entry::getKey, Entry::getValue, (x, y) -> y, ConcurrentHashMap::new));
-		}
-		return Collections.emptyMap();
+	/**
+	 * @return udid to port of every live appium server, read from memory
+	 */
+	public static Map<String, Integer> getRunningAppiumSessions() {
+		return PROCESSES.values().stream().filter(AppiumProcess::isAlive)
+				.collect(Collectors.toMap(AppiumProcess::getDeviceId, AppiumProcess::getPort, (x, y) -> y));
+	}
+
+	/**
+	 * @param deviceId {@link String}
+	 * @return live appium server of the device or <code>null</code>
+	 */
+	public static AppiumProcess getProcess(@NonNull String deviceId) {
+		AppiumProcess process = PROCESSES.get(deviceId);
+		return process != null && process.isAlive() ? process : null;
+	}
+
+	/**
+	 * registers a listener called whenever an appium server exits, whether it was
+	 * stopped or crashed
+	 *
+	 * @param listener {@link Consumer}
+	 */
+	public static void addExitListener(@NonNull Consumer<AppiumProcess> listener) {
+		EXIT_LISTENERS.add(listener);
+	}
+
+	public enum ProcessState {
+		STARTING, RUNNING, STOPPING, EXITED
+	}
+
+	/**
+	 * an appium server owned by this jvm, its exit is observed by a watcher thread
+	 * instead of scanning the process list
+	 */
+	@Slf4j
+	public static final class AppiumProcess {
+
+		@Getter
+		private final String deviceId;
+		@Getter
+		private final int port;
+		@Getter
+		private final long pid;
+		@Getter
+		private final long startedAt = System.currentTimeMillis();
+		@Getter
+		private volatile ProcessState state = ProcessState.STARTING;
+		@Getter
+		private volatile boolean stopRequested;
+
+		private final Process process;
+		private final CompletableFuture<Integer> exit = new CompletableFuture<>();
+
+		private AppiumProcess(String deviceId, int port, Process process) {
+			this.deviceId = deviceId;
+			this.port = port;
+			this.process = process;
+			this.pid = CommandLineExecutor.getPid(process);
+		}
+
+		public boolean isAlive() {
+			return !exit.isDone();
+		}
+
+		/**
+		 * @return future completed with the exit code once the process is gone
+		 */
+		public CompletableFuture<Integer> onExit() {
+			return exit;
+		}
+
+		private synchronized void markRunning() {
+			if (state == ProcessState.STARTING) {
+				state = ProcessState.RUNNING;
+			}
+		}
+
+		private synchronized void markExited() {
+			state = ProcessState.EXITED;
+		}
+
+		private synchronized void markStopping() {
+			stopRequested = true;
+			if (state != ProcessState.EXITED) {
+				state = ProcessState.STOPPING;
+			}
+		}
+
+		private void watch() {
+			exit.thenAccept(code -> {
+				markExited();
+				PROCESSES.remove(deviceId, this);
+				if (!stopRequested) {
+					log.warn("appium process '{}' of device '{}' on port '{}' exited with code '{}'", pid, deviceId,
+							port, code);
+				}
+				for (Consumer<AppiumProcess> listener : EXIT_LISTENERS) {
+					try {
+						listener.accept(this);
+					} catch (Exception ex) {
+						log.error("{} occurred in appium exit listener with message '{}'", ex.getClass().getName(),
+								ex.getMessage());
+					}
+				}
+			});
+			WATCHERS.execute(() -> {
+				try {
+					exit.complete(process.waitFor());
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+
+		/**
+		 * kills the process tree of the server and waits for it to exit
+		 */
+		private void terminate() {
+			markStopping();
+			CommandLineExecutor.killTree(process);
+			try {
+				exit.get(STOP_TIMEOUT_IN_SEC, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (Exception ex) {
+				log.error("appium process '{}' of device '{}' did not exit within '{} seconds'", pid, deviceId,
+						STOP_TIMEOUT_IN_SEC);
+			}
+		}
 	}
 
 	@Slf4j
 	public static final class Builder {
 
 		private static final int MAX_SESSION_START_TIMEOUT = 60;
-		private static final int APPIUM_PORT_START = 4723;
-		private static final int TOTAL_PORTS = 200;
+		private static final long READINESS_PROBE_INITIAL_IN_MSEC = 100;
+		private static final long READINESS_PROBE_MAX_IN_MSEC = 2000;
+		private static final int READINESS_CONNECT_TIMEOUT_IN_MSEC = 1000;
+		private static final int READINESS_READ_TIMEOUT_IN_MSEC = 2000;
 		public static final String LOG_DIRECTORY = createDirectory(Paths
 				.get(getProperty("DEVICE_LAB_LOGS_DIR", new File(System.getProperty("user.dir")).getAbsolutePath()),
 						"appium-logs")
 				.toFile());
 
-		private static final Map<Integer, String> APPIUM_PORTS_MAPPING = new ConcurrentHashMap<>();
-
-		private static final Queue<Integer> APPIUM_PORTS_QUEUE = IntStream
-				.range(APPIUM_PORT_START, APPIUM_PORT_START + TOTAL_PORTS + 1).mapToObj(Integer::valueOf)
-				.collect(Collectors.toCollection(LinkedList::new));
+		private static File script;
 
 		private String deviceId;
 		private boolean isAndroid;
 		private Integer port;
+		private PortLease ports;
 		private String browserVersion;
 		private String ip = getLocalNetworkIP();
 		private File nodeConfig;
@@ -168,8 +294,12 @@ public final class AppiumLocalService {
 			return this;
 		}
 
-		public Builder port(int port) {
-			this.port = port;
+		/**
+		 * ports to start the server on, the lease is released when the server exits
+		 * or fails to start
+		 */
+		public Builder ports(@NonNull PortLease ports) {
+			this.ports = ports;
 			return this;
 		}
 
@@ -184,13 +314,7 @@ public final class AppiumLocalService {
 		}
 
 		public static Collection<String> getDevicesOfRunningAppiumSessions() {
-			CommandLineResponse response = exec(
-					"ps -ef | grep -v stf | grep -i node | grep -i appium | grep -i 'relaxed-security' | grep -v grep | awk '{print $11}' | tr -s '\\n' ' '");
-			if (response.getExitCode() == 0) {
-				return Arrays.stream(response.getStdOut().split("\\s+")).map(String::trim).filter(e -> !e.isEmpty())
-						.collect(Collectors.toSet());
-			}
-			return Collections.emptySet();
+			return getRunningAppiumSessions().keySet();
 		}
 
 		/**
@@ -198,28 +322,24 @@ public final class AppiumLocalService {
 		 */
 		public boolean stop() {
 
+			checkArgument(!isBlank(deviceId), "deviceId cannot be null");
+			ReentrantLock deviceLock = getDeviceLock(deviceId);
 			try {
-				checkArgument(!isBlank(deviceId), "deviceId cannot be null");
-				LOCK.lock();
-
-				int runPort = APPIUM_PORTS_MAPPING.entrySet().stream().filter(e -> e.getValue().contains(deviceId))
-						.map(Entry::getKey).findFirst().orElse(-1);
-				if (runPort != -1) {
-					APPIUM_PORTS_MAPPING.put(runPort, null);
-					kill(runPort);
-					killAppiumProcessesByDeviceId(deviceId);
-					APPIUM_PORTS_QUEUE.add(runPort);
-					sleep(1000);
+				deviceLock.lock();
+
+				AppiumProcess process = PROCESSES.get(deviceId);
+				if (process != null) {
+					log.info("********* stopping appium process '{}' of device '{}' *********", process.getPid(),
+							deviceId);
+					process.terminate();
 				}
-				log.info("********* stopping appium process of device '{}' *********", deviceId);
 				return true;
 			} catch (Exception ex) {
 				log.error("*********  unable to stop appium process for device '{}' - {} *********", deviceId,
 						ex.getMessage());
 				return false;
 			} finally {
-				sleep(1000);
-				LOCK.unlock();
+				deviceLock.unlock();
 			}
 
 		}
@@ -236,18 +356,33 @@ public final class AppiumLocalService {
 		 * @return {@link URL}
 		 */
 		public URL start() {
+			checkArgument(!isBlank(deviceId), "deviceId cannot be null");
+			ReentrantLock deviceLock = getDeviceLock(deviceId);
+			boolean bound = false;
 			try {
-				LOCK.lock();
-				kill(port);
-				startProcess(getCommand());
-				if (waitFor(port, MAX_SESSION_START_TIMEOUT)) {
+				ADB_LOCK.readLock().lock();
+				deviceLock.lock();
+				if (ports == null) {
+					ports = PortAllocator.acquire(deviceId);
+				}
+				port = ports.getPort();
+				AppiumProcess process = startProcess(getCommand());
+				ports.releaseOnExit(process.onExit());
+				bound = true;
+				if (waitFor(process, MAX_SESSION_START_TIMEOUT)) {
+					process.markRunning();
 					return new URL(String.format("http://%s:%s/wd/hub", ip, port));
 				}
+				process.terminate();
 			} catch (Exception e) {
 				e.printStackTrace();
 			} finally {
-				APPIUM_PORTS_MAPPING.put(port, deviceId);
-				LOCK.unlock();
+				/* once bound, the lease is reclaimed when the process exits */
+				if (!bound && ports != null) {
+					ports.release();
+				}
+				deviceLock.unlock();
+				ADB_LOCK.readLock().unlock();
 			}
 			log.error("********* unable to start appium process for device '{}' *********", deviceId);
 			return null;
@@ -260,8 +395,7 @@ public final class AppiumLocalService {
 			checkArgument(!isBlank(deviceId), "deviceId cannot be null");
 			cmd.add("--udid", deviceId);
 
-			port = port == null || port == -1 ? findFreePort() : port;
-			checkArgument(port != null && port > -1, "appium port cannot be null");
+			checkArgument(ports != null, "appium ports cannot be null");
 
 			String localIp = System.getenv("IP");
 			if (isBlank(localIp)) {
@@ -285,32 +419,19 @@ public final class AppiumLocalService {
 
 			if (isAndroid) {
 
-				Integer bootstrapPort = port + 100;
-				kill(bootstrapPort);
-
-				Integer chromeDriverPort = port + 200;
-				kill(chromeDriverPort);
-
-				Integer systemPort = port + 300;
-				kill(systemPort);
-
 				cmd
 						.add("--suppress-adb-kill-server")
-						.add("--bootstrap-port", bootstrapPort)
-						.add("--chromedriver-port", chromeDriverPort)
+						.add("--bootstrap-port", ports.getBootstrapPort())
+						.add("--chromedriver-port", ports.getChromeDriverPort())
 						.add("--chromedriver-executable", getChromeDriverPath())
-						.add("--default-capabilities", String.format("{\\\"systemPort\\\":%s}", systemPort));
+						.add("--default-capabilities",
+								String.format("{\\\"systemPort\\\":%s}", ports.getSystemPort()));
 
 			} else {
-				Integer wdaProxyPort = port + 400;
-				kill(wdaProxyPort);
-
-				Integer wdaLocalPort = port + 500;
-				kill(wdaLocalPort);
-
 				cmd
-						.add("--webkit-debug-proxy-port", wdaProxyPort)
-						.add("--default-capabilities", String.format("{\\\"wdaLocalPort\\\":%s}", wdaLocalPort));
+						.add("--webkit-debug-proxy-port", ports.getWebkitDebugProxyPort())
+						.add("--default-capabilities",
+								String.format("{\\\"wdaLocalPort\\\":%s}", ports.getWdaLocalPort()));
 			}
 
 			if (!isBlank(nodeConfig)) {
@@ -333,26 +454,14 @@ public final class AppiumLocalService {
 			return directory.getAbsolutePath();
 		}
 
-		public Integer findFreePort() {
-			try {
-				LOCK.lock();
-				if (!APPIUM_PORTS_QUEUE.isEmpty()) {
-					int freePort = APPIUM_PORTS_QUEUE.poll();
-					APPIUM_PORTS_MAPPING.put(freePort, "");
-					return freePort;
-				} else {
-					throw new RuntimeException(String.format("no free ports available in range %s - %s",
-							APPIUM_PORT_START, APPIUM_PORT_START + TOTAL_PORTS));
-				}
-			} finally {
-				LOCK.unlock();
-			}
+		private static ReentrantLock getDeviceLock(@NonNull String deviceId) {
+			return DEVICE_LOCKS.computeIfAbsent(deviceId, e -> new ReentrantLock());
 		}
 
 		public boolean restartABDServer() {
 
 			try {
-				LOCK.lock();
+				ADB_LOCK.writeLock().lock();
 				if (!getDevicesOfRunningAppiumSessions().isEmpty()) {
 					return false;
 				}
@@ -360,7 +469,7 @@ public final class AppiumLocalService {
 				return restartADBServer();
 			} finally {
 				sleep(5000);
-				LOCK.unlock();
+				ADB_LOCK.writeLock().unlock();
 			}
 		}
 
@@ -370,52 +479,92 @@ public final class AppiumLocalService {
 		}
 
 		public void restartEmulators() {
-			connectedDevices().stream().parallel().forEach(ADBUtilities::rebootDevice);
+			CompletableFuture.allOf(connectedDevices().stream().map(e -> CommandLineExecutor.submit(e, () -> {
+				ADBUtilities.rebootDevice(e);
+				return null;
+			})).toArray(CompletableFuture[]::new)).join();
 		}
 
-		private void startProcess(@NonNull String command) {
+		private AppiumProcess startProcess(@NonNull String command) throws IOException {
 
-			String script = CommonUtilities
-					.toString(AppiumLocalService.class.getResourceAsStream("/scripts/wd-session.bash"));
-			File scriptFile = new File(String.format("wd-session-%s.bash", System.currentTimeMillis()));
 			log.info("******************** starting appium session for device '{}' on port {} ********************",
 					deviceId, port);
-			new Thread(() -> {
-				try {
-					String cmd = String.format("bash %s %s %s %s", scriptFile.getAbsolutePath(), getJavaHome(),
-							DEFAULT_ANDROID_HOME, command);
-					java.nio.file.Files.write(scriptFile.toPath(), script.getBytes());
-					getRuntime().exec(cmd).waitFor(30, TimeUnit.SECONDS);
-				} catch (Exception e) {
-					e.printStackTrace();
-				} finally {
-					scriptFile.delete();
+
+			/* the script evals the command, so it is handed over as a single argument */
+			Process process = new ProcessBuilder("bash", getScript().getAbsolutePath(), getJavaHome(),
+					DEFAULT_ANDROID_HOME, command).redirectErrorStream(true)
+					.redirectOutput(Redirect.appendTo(new File("/dev/null"))).start();
+			process.getOutputStream().close();
+
+			AppiumLogIndex.track(deviceId, logFile.toPath());
+
+			AppiumProcess appium = new AppiumProcess(deviceId, port, process);
+			AppiumProcess previous = PROCESSES.put(deviceId, appium);
+			if (previous != null && previous.isAlive()) {
+				log.warn("replacing appium process '{}' of device '{}'", previous.getPid(), deviceId);
+				previous.terminate();
+			}
+			appium.watch();
+			return appium;
+		}
+
+		private static synchronized File getScript() throws IOException {
+			if (script == null || !script.exists()) {
+				File file = File.createTempFile("wd-session-", ".bash");
+				file.deleteOnExit();
+				Files.write(file.toPath(), CommonUtilities
+						.toString(AppiumLocalService.class.getResourceAsStream("/scripts/wd-session.bash")).getBytes());
+				script = file;
+			}
+			return script;
+		}
+
+		/**
+		 * probes the status endpoint with exponentially growing pauses, a server that
+		 * comes up quickly is picked up in a few hundred milliseconds
+		 */
+		private boolean waitFor(AppiumProcess process, int maxTimeout) {
+			long end = System.currentTimeMillis() + (maxTimeout * 1000L);
+			long delay = READINESS_PROBE_INITIAL_IN_MSEC;
+			while (true) {
+				if (isReady(port)) {
+					return true;
 				}
-			}).start();
+				if (!process.isAlive()) {
+					log.error("appium process of device '{}' exited with code '{}' before listening on port '{}'",
+							deviceId, process.onExit().getNow(-1), port);
+					return false;
+				}
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				sleep(Math.min(delay, remaining));
+				delay = Math.min(delay * 2, READINESS_PROBE_MAX_IN_MSEC);
+			}
+			log.error("listening on port '{}' timed out after '{} seconds'", port, maxTimeout);
+			return false;
 		}
 
-		private boolean waitFor(int port, int maxTimeout) {
-			long end = System.currentTimeMillis() + (maxTimeout * 1000);
+		/**
+		 * @param port appium port
+		 * @return <code>true</code> when the appium server on the port answers its
+		 *         status endpoint
+		 */
+		public static boolean isReady(int port) {
 			try {
-				URL url = new URL(String.format("http://127.0.0.1:%s/wd/hub/status", port));
-				do {
-					if (isUrlListening(url)) {
-						return true;
-					} else {
-						sleep(1000);
-					}
-				} while (System.currentTimeMillis() < end);
-				log.error("listening on port '{}' timed out after '{} seconds'", port, maxTimeout);
-			} catch (Exception e) {
-				e.printStackTrace();
+				return isUrlListening(new URL(String.format("http://127.0.0.1:%s/wd/hub/status", port)));
+			} catch (IOException e) {
+				return false;
 			}
-			return false;
 		}
 
-		private boolean isUrlListening(URL url) {
+		private static boolean isUrlListening(URL url) {
 			HttpURLConnection connection = null;
 			try {
 				connection = (HttpURLConnection) url.openConnection();
+				connection.setConnectTimeout(READINESS_CONNECT_TIMEOUT_IN_MSEC);
+				connection.setReadTimeout(READINESS_READ_TIMEOUT_IN_MSEC);
 				connection.setRequestMethod("GET");
 				connection.connect();
 				return 200 == connection.getResponseCode();
@@ -462,17 +611,7 @@ public final class AppiumLocalService {
 				return path;
 			}
 
-			String input = new String(Files.readAllBytes(Paths.get(LOG_DIRECTORY, deviceId + ".log")));
-			String regex = String
-					.format("(Request idempotency key((?!Request idempotency key).)*?Removing session %s from our master session list)",
-							sessionId);
-			Matcher matcher = Pattern.compile(regex, Pattern.DOTALL | Pattern.MULTILINE).matcher(input);
-			if (matcher.find()) {
-
-				if (!path.toFile().getParentFile().exists()) {
-					path.toFile().getParentFile().mkdirs();
-				}
-				Files.write(path, matcher.group().getBytes(), StandardOpenOption.CREATE);
+			if (AppiumLogIndex.extract(deviceId, Paths.get(LOG_DIRECTORY, deviceId + ".log"), sessionId, path)) {
 				return path;
 			}
 
@@ -0,0 +1,247 @@
+package com.lampo.device_lab.slave.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+public final class AppiumLogIndex {
+
+	private static final String SESSION_START = "Request idempotency key";
+	private static final Pattern SESSION_END = Pattern.compile("Removing session (\\S+) from our master session list");
+
+	/* markers sit right after the timestamp, the rest of long lines is never kept */
+	private static final int MAX_LINE_PREFIX = 512;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_SESSIONS = 1024;
+
+	private static final Map<String, DeviceLog> INDEXES = new ConcurrentHashMap<>();
+
+	private AppiumLogIndex() {
+	}
+
+	/**
+	 * @param deviceId {@link String}
+	 * @param log      appium log of the device
+	 */
+	public static void track(@NonNull String deviceId, @NonNull Path log) {
+		INDEXES.compute(deviceId, (id, index) -> index != null && index.file.equals(log) ? index : new DeviceLog(log));
+	}
+
+	/**
+	 * indexes whatever was appended to the log of the device since the last call
+	 *
+	 * @param deviceId {@link String}
+	 */
+	public static void refresh(@NonNull String deviceId) {
+		DeviceLog index = INDEXES.get(deviceId);
+		if (index == null) {
+			return;
+		}
+		try {
+			index.refresh();
+		} catch (IOException ex) {
+			log.error("{} occurred while indexing appium log of device '{}' with message '{}'",
+					ex.getClass().getName(), deviceId, ex.getMessage());
+		}
+	}
+
+	/**
+	 * copies the part of the log written for the session into the target file
+	 * without reading it into memory
+	 *
+	 * @param deviceId  {@link String}
+	 * @param log       appium log of the device
+	 * @param sessionId {@link String}
+	 * @param target    {@link Path}
+	 * @return <code>false</code> if the session is not found in the log
+	 * @throws IOException
+	 */
+	public static boolean extract(@NonNull String deviceId, @NonNull Path log, @NonNull String sessionId,
+			@NonNull Path target) throws IOException {
+
+		track(deviceId, log);
+		long[] range = INDEXES.get(deviceId).find(sessionId);
+		if (range == null) {
+			return false;
+		}
+
+		Files.createDirectories(target.getParent());
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel source = FileChannel.open(log, StandardOpenOption.READ);
+					FileChannel destination = FileChannel.open(temp, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+				long position = range[0];
+				long remaining = range[1] - range[0];
+				while (remaining > 0) {
+					long transferred = source.transferTo(position, remaining, destination);
+					if (transferred <= 0) {
+						break;
+					}
+					position += transferred;
+					remaining -= transferred;
+				}
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * byte ranges of the sessions found in one appium log, the log is read once
+	 * as it grows
+	 */
+	private static final class DeviceLog {
+
+		private final Path file;
+
+		/* guarded by this */
+		private long offset;
+		private long pendingStart = -1;
+		private final Map<String, long[]> sessions = new LinkedHashMap<String, long[]>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, long[]> eldest) {
+				return size() > MAX_SESSIONS;
+			}
+		};
+
+		private DeviceLog(Path file) {
+			this.file = file;
+		}
+
+		private synchronized long[] find(String sessionId) throws IOException {
+			long[] range = sessions.get(sessionId);
+			if (range == null) {
+				refresh();
+				range = sessions.get(sessionId);
+			}
+			return range;
+		}
+
+		private synchronized void refresh() throws IOException {
+			if (!Files.exists(file)) {
+				reset();
+				return;
+			}
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				if (channel.size() < offset) {
+					/* truncated or replaced, the old offsets mean nothing anymore */
+					reset();
+				}
+				if (channel.size() == offset) {
+					return;
+				}
+				/* scanned a chunk at a time, a log indexed from the start after a restart is large */
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				byte[] chunk = buffer.array();
+				byte[] prefix = new byte[MAX_LINE_PREFIX];
+				int length = 0;
+				long position = offset;
+				long lineStart = offset;
+				int read;
+				while ((read = channel.read(buffer, position)) > 0) {
+					for (int i = 0; i < read; i++) {
+						byte value = chunk[i];
+						if (value == '\n') {
+							long end = position + i + 1;
+							onLine(new String(prefix, 0, length, StandardCharsets.ISO_8859_1), lineStart, end);
+							lineStart = end;
+							length = 0;
+						} else if (length < prefix.length) {
+							prefix[length++] = value;
+						}
+					}
+					position += read;
+					buffer.clear();
+				}
+				/* a line still being written is read again on the next refresh */
+				offset = lineStart;
+			}
+		}
+
+		private void onLine(String line, long start, long end) {
+			if (line.contains(SESSION_START)) {
+				pendingStart = start;
+				return;
+			}
+			Matcher matcher = SESSION_END.matcher(line);
+			if (matcher.find() && pendingStart >= 0) {
+				sessions.put(matcher.group(1), new long[] { pendingStart, end });
+			}
+		}
+
+		private void reset() {
+			offset = 0;
+			pendingStart = -1;
+			sessions.clear();
+		}
+	}
+}
@@ -1,7 +1,26 @@
 package com.lampo.device_lab.slave.utils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import com.lampo.device_lab.slave.model.CommandLineResponse;
 import com.lampo.device_lab.slave.model.Platform;
@@ -60,13 +79,153 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class CommandLineExecutor {
 
+	private static final long TIMEOUT_IN_SEC = 60;
+	private static final int MAX_OUTPUT_IN_BYTES = 4 * 1024 * 1024;
+	private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	private static final int QUEUE_CAPACITY = 512;
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private static final ThreadLocal<Boolean> IN_POOL = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+	/*
+	 * devices whose chained task runs on the current thread, which is not a pooled
+	 * one when the full queue made the submitting thread run it
+	 */
+	private static final ThreadLocal<Set<String>> IN_CHAIN = ThreadLocal.withInitial(HashSet::new);
+
+	/* bounded, a full queue makes the submitting thread run the command itself */
+	private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(QUEUE_CAPACITY), r -> {
+				Thread thread = new Thread(() -> {
+					IN_POOL.set(Boolean.TRUE);
+					r.run();
+				}, "command-executor-" + THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.CallerRunsPolicy());
+
+	private static final ExecutorService DRAINERS = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "command-output-drainer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/* tail of the task chain of every device with queued or running work */
+	private static final Map<String, CompletableFuture<?>> DEVICE_QUEUES = new ConcurrentHashMap<>();
+
+	private static final AtomicInteger WAITING = new AtomicInteger();
+	private static final AtomicLong EXECUTED = new AtomicLong();
+	private static final AtomicLong TIMED_OUT = new AtomicLong();
+	private static final AtomicLong FAILED = new AtomicLong();
+	private static final AtomicLong TOTAL_LATENCY_IN_MSEC = new AtomicLong();
+	private static final AtomicLong MAX_LATENCY_IN_MSEC = new AtomicLong();
+
+	static {
+		POOL.allowCoreThreadTimeOut(true);
+	}
+
 	private CommandLineExecutor() {
 	}
 
+	/**
+	 * runs the command and waits for it, blocking calls made from a pooled task
+	 * run inline so nested commands cannot starve the pool
+	 */
 	public static CommandLineResponse exec(final String cmd) {
+		if (IN_POOL.get()) {
+			return run(cmd, TIMEOUT_IN_SEC);
+		}
+		return execAsync(cmd).join();
+	}
+
+	/**
+	 * runs the command after every command submitted earlier for the same device
+	 */
+	public static CommandLineResponse exec(@NonNull String deviceId, final String cmd) {
+		if (IN_POOL.get() || IN_CHAIN.get().contains(deviceId)) {
+			return run(cmd, TIMEOUT_IN_SEC);
+		}
+		return execAsync(deviceId, cmd).join();
+	}
+
+	public static CompletableFuture<CommandLineResponse> execAsync(final String cmd) {
+		return submit(() -> run(cmd, TIMEOUT_IN_SEC));
+	}
+
+	public static CompletableFuture<CommandLineResponse> execAsync(@NonNull String deviceId, final String cmd) {
+		return submit(deviceId, () -> run(cmd, TIMEOUT_IN_SEC));
+	}
+
+	public static <T> CompletableFuture<T> submit(@NonNull Supplier<T> task) {
+		WAITING.incrementAndGet();
+		return CompletableFuture.supplyAsync(() -> {
+			WAITING.decrementAndGet();
+			return task.get();
+		}, POOL);
+	}
+
+	/**
+	 * queues the task behind the ones already submitted for the device, so
+	 * commands against one device never interleave while different devices run in
+	 * parallel. a task submitted from within the chain of the same device runs
+	 * inline, queueing it behind its own caller would never complete
+	 */
+	public static <T> CompletableFuture<T> submit(@NonNull String deviceId, @NonNull Supplier<T> task) {
+		if (IN_CHAIN.get().contains(deviceId)) {
+			CompletableFuture<T> result = new CompletableFuture<>();
+			try {
+				result.complete(task.get());
+			} catch (Throwable ex) {
+				result.completeExceptionally(ex);
+			}
+			return result;
+		}
+
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		CompletableFuture<?> previous = DEVICE_QUEUES.put(deviceId, done);
+
+		WAITING.incrementAndGet();
+		CompletableFuture<?> after = previous == null ? CompletableFuture.completedFuture(null)
+				: previous.handle((value, ex) -> null);
+		CompletableFuture<T> result = after.thenApplyAsync(value -> {
+			WAITING.decrementAndGet();
+			Set<String> chain = IN_CHAIN.get();
+			chain.add(deviceId);
+			try {
+				return task.get();
+			} finally {
+				chain.remove(deviceId);
+			}
+		}, POOL);
+		result.whenComplete((value, ex) -> {
+			done.complete(null);
+			DEVICE_QUEUES.remove(deviceId, done);
+		});
+		return result;
+	}
+
+	/**
+	 * @return queue depth and latency of executed commands
+	 */
+	public static Map<String, Object> getStats() {
+		long executed = EXECUTED.get();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("waiting", WAITING.get());
+		stats.put("running", POOL.getActiveCount());
+		stats.put("queued_devices", DEVICE_QUEUES.size());
+		stats.put("executed", executed);
+		stats.put("timed_out", TIMED_OUT.get());
+		stats.put("failed", FAILED.get());
+		stats.put("average_latency_in_msec", executed == 0 ? 0 : TOTAL_LATENCY_IN_MSEC.get() / executed);
+		stats.put("max_latency_in_msec", MAX_LATENCY_IN_MSEC.get());
+		return stats;
+	}
+
+	private static CommandLineResponse run(final String cmd, long timeoutInSec) {
 
 		log.debug("executing command : {}", cmd);
 		CommandLineResponse response = new CommandLineResponse();
+		long start = System.currentTimeMillis();
 		Process process = null;
 		try {
 			ProcessBuilder builder = new ProcessBuilder("bash", "-c", cmd);
@@ -75,22 +234,108 @@ public class CommandLineExecutor {
 			env.put("PATH",
 					env.get("PATH") + ":/usr/local/bin:" + System.getenv("HOME") + "/.linuxbrew/bin:/opt/homebrew/bin");
 			process = builder.start();
+			process.getOutputStream().close();
+
+			/* both pipes are drained while the process runs so a full pipe cannot block it */
+			Future<String> stdOut = DRAINERS.submit(drain(process.getInputStream()));
+			Future<String> errOut = DRAINERS.submit(drain(process.getErrorStream()));
 
-			process.waitFor(60, TimeUnit.SECONDS);
-			response.setStdOut(CommonUtilities.toString(process.getInputStream()).trim());
-			response.setErrOut(CommonUtilities.toString(process.getErrorStream()).trim());
-			response.setExitCode(process.exitValue());
+			if (process.waitFor(timeoutInSec, TimeUnit.SECONDS)) {
+				response.setExitCode(process.exitValue());
+			} else {
+				TIMED_OUT.incrementAndGet();
+				log.error("command '{}' timed out after '{} seconds', killing its process tree", cmd, timeoutInSec);
+				killTree(process);
+				response.setExitCode(-1);
+			}
+			response.setStdOut(stdOut.get(5, TimeUnit.SECONDS).trim());
+			response.setErrOut(errOut.get(5, TimeUnit.SECONDS).trim());
 			log.trace("response: {}", response);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			FAILED.incrementAndGet();
+			response.setExitCode(-1);
+			killTree(process);
 		} catch (Throwable e) {
+			FAILED.incrementAndGet();
+			response.setExitCode(-1);
 			log.error("{} occurred while running command '{}'", e.getClass().getName(), cmd);
 		} finally {
 			if (process != null) {
 				process.destroy();
 			}
+			long latency = System.currentTimeMillis() - start;
+			EXECUTED.incrementAndGet();
+			TOTAL_LATENCY_IN_MSEC.addAndGet(latency);
+			MAX_LATENCY_IN_MSEC.accumulateAndGet(latency, Math::max);
 		}
 		return response;
 	}
 
+	/**
+	 * keeps the first {@value #MAX_OUTPUT_IN_BYTES} bytes and discards the rest
+	 * without blocking the writer
+	 */
+	private static Callable<String> drain(InputStream stream) {
+		return () -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			try (InputStream in = stream) {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					int room = MAX_OUTPUT_IN_BYTES - out.size();
+					if (room > 0) {
+						out.write(buffer, 0, Math.min(read, room));
+					}
+				}
+			} catch (IOException ex) {
+				// stream closed when the process was killed
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		};
+	}
+
+	/**
+	 * bash forks the actual command, so descendants are killed before the shell
+	 * itself
+	 */
+	public static void killTree(Process process) {
+		if (process == null) {
+			return;
+		}
+		long pid = getPid(process);
+		if (pid > 0) {
+			String script = "kill_tree() { for child in $(pgrep -P $1); do kill_tree $child; done; kill -9 $1; }; kill_tree "
+					+ pid;
+			try {
+				new ProcessBuilder("bash", "-c", script).start().waitFor(10, TimeUnit.SECONDS);
+			} catch (IOException ex) {
+				log.error("unable to kill process tree of '{}' with message '{}'", pid, ex.getMessage());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		process.destroyForcibly();
+	}
+
+	/**
+	 * @return pid of the process or <code>-1</code> when it cannot be read
+	 */
+	public static long getPid(Process process) {
+		try {
+			return (long) Process.class.getMethod("pid").invoke(process);
+		} catch (ReflectiveOperationException ex) {
+			/* java 8 keeps the pid in a private field of the unix implementation */
+			try {
+				Field field = process.getClass().getDeclaredField("pid");
+				field.setAccessible(true);
+				return field.getLong(process);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return -1;
+			}
+		}
+	}
+
 	public static boolean killProcess(@NonNull String name) {
 		return killProcess(name, false);
 	}
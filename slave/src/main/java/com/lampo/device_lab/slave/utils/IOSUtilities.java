@@ -180,7 +180,7 @@ public final class IOSUtilities {
 		String cmd = deviceId.contains("-")
 				? String.format("xcrun simctl shutdown '%s' && xcrun simctl boot '%s'", deviceId, deviceId)
 				: String.format("idevicediagnostics -u '%s' restart", deviceId);
-		exec(cmd);
+		exec(deviceId, cmd);
 
 	}
 
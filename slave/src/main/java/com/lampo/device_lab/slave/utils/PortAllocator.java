@@ -0,0 +1,266 @@
+package com.lampo.device_lab.slave.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.lampo.device_lab.slave.model.DeviceManagerException;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+@Slf4j
+public final class PortAllocator {
+
+	public static final int APPIUM_PORT_START = 4723;
+
+	/*
+	 * appium, bootstrap, chromedriver, system, webkit debug proxy and wda ports of
+	 * one block, there are no more slots than the stride between the offsets so
+	 * no two blocks share a port
+	 */
+	private static final int BLOCK_STRIDE = 100;
+	private static final int[] OFFSETS = { 0, BLOCK_STRIDE, 2 * BLOCK_STRIDE, 3 * BLOCK_STRIDE, 4 * BLOCK_STRIDE,
+			5 * BLOCK_STRIDE };
+
+	private static final AtomicReferenceArray<PortLease> SLOTS = new AtomicReferenceArray<>(BLOCK_STRIDE);
+
+	/* rotates so a block released a moment ago is the last one handed out again */
+	private static final AtomicInteger CURSOR = new AtomicInteger();
+
+	private static final AtomicLong ACQUIRED = new AtomicLong();
+	private static final AtomicLong RELEASED = new AtomicLong();
+	private static final AtomicLong RECLAIMED = new AtomicLong();
+	private static final AtomicLong LEAKED = new AtomicLong();
+	private static final AtomicLong BIND_CONFLICTS = new AtomicLong();
+	private static final AtomicLong EXHAUSTED = new AtomicLong();
+
+	private PortAllocator() {
+	}
+
+	/**
+	 * leases a block of ports which are all bindable at the time of the call,
+	 * blocks are claimed with a compare and set so no lock is held
+	 *
+	 * @param owner device the ports are leased to
+	 * @return {@link PortLease}
+	 */
+	public static PortLease acquire(@NonNull String owner) {
+		int slots = SLOTS.length();
+		int start = Math.floorMod(CURSOR.getAndIncrement(), slots);
+		for (int i = 0; i < slots; i++) {
+			int slot = (start + i) % slots;
+			if (SLOTS.get(slot) != null) {
+				continue;
+			}
+			PortLease lease = new PortLease(slot, owner);
+			if (!SLOTS.compareAndSet(slot, null, lease)) {
+				continue;
+			}
+			if (isBindable(lease)) {
+				ACQUIRED.incrementAndGet();
+				return lease;
+			}
+			/* taken by a process this jvm does not own, another block is tried */
+			SLOTS.compareAndSet(slot, lease, null);
+			BIND_CONFLICTS.incrementAndGet();
+		}
+		EXHAUSTED.incrementAndGet();
+		throw new DeviceManagerException(String.format("no free ports available in range %s - %s",
+				APPIUM_PORT_START, APPIUM_PORT_START + BLOCK_STRIDE - 1));
+	}
+
+	/**
+	 * releases leases which were never bound to a process within the given age,
+	 * they were leaked by a caller that neither started nor released them
+	 *
+	 * @param maxAgeInMsec age after which an unbound lease counts as leaked
+	 * @return number of leases reclaimed
+	 */
+	public static int reclaimLeaked(long maxAgeInMsec) {
+		long threshold = System.currentTimeMillis() - maxAgeInMsec;
+		int reclaimed = 0;
+		for (int i = 0; i < SLOTS.length(); i++) {
+			PortLease lease = SLOTS.get(i);
+			if (lease != null && !lease.bound.get() && lease.acquiredAt < threshold && lease.free()) {
+				LEAKED.incrementAndGet();
+				reclaimed++;
+				log.warn("reclaimed port '{}' leaked by device '{}'", lease.getPort(), lease.getOwner());
+			}
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * @return utilisation of the port range and lease counters
+	 */
+	public static Map<String, Object> getStats() {
+		int inUse = 0;
+		for (int i = 0; i < SLOTS.length(); i++) {
+			if (SLOTS.get(i) != null) {
+				inUse++;
+			}
+		}
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("capacity", SLOTS.length());
+		stats.put("in_use", inUse);
+		stats.put("utilisation_in_percent", inUse * 100 / SLOTS.length());
+		stats.put("acquired", ACQUIRED.get());
+		stats.put("released", RELEASED.get());
+		stats.put("reclaimed_on_exit", RECLAIMED.get());
+		stats.put("reclaimed_leaks", LEAKED.get());
+		stats.put("bind_conflicts", BIND_CONFLICTS.get());
+		stats.put("exhausted", EXHAUSTED.get());
+		return stats;
+	}
+
+	private static boolean isBindable(PortLease lease) {
+		for (int offset : OFFSETS) {
+			if (!isBindable(lease.getPort() + offset)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isBindable(int port) {
+		try (ServerSocket socket = new ServerSocket()) {
+			socket.setReuseAddress(true);
+			socket.bind(new InetSocketAddress(port));
+			return true;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * a block of ports leased to one device, released explicitly or when the
+	 * process it is bound to exits
+	 */
+	public static final class PortLease {
+
+		private final int slot;
+		@Getter
+		private final String owner;
+		private final long acquiredAt = System.currentTimeMillis();
+		private final AtomicBoolean bound = new AtomicBoolean();
+
+		private PortLease(int slot, String owner) {
+			this.slot = slot;
+			this.owner = owner;
+		}
+
+		public int getPort() {
+			return APPIUM_PORT_START + slot;
+		}
+
+		public int getBootstrapPort() {
+			return getPort() + OFFSETS[1];
+		}
+
+		public int getChromeDriverPort() {
+			return getPort() + OFFSETS[2];
+		}
+
+		public int getSystemPort() {
+			return getPort() + OFFSETS[3];
+		}
+
+		public int getWebkitDebugProxyPort() {
+			return getPort() + OFFSETS[4];
+		}
+
+		public int getWdaLocalPort() {
+			return getPort() + OFFSETS[5];
+		}
+
+		/**
+		 * releases the lease once the process using the ports exits
+		 *
+		 * @param exit future completed when the process exits
+		 */
+		public void releaseOnExit(@NonNull CompletableFuture<?> exit) {
+			bound.set(true);
+			exit.whenComplete((code, ex) -> {
+				if (free()) {
+					RECLAIMED.incrementAndGet();
+				}
+			});
+		}
+
+		/**
+		 * @return <code>true</code> if this call released the lease
+		 */
+		public boolean release() {
+			if (free()) {
+				RELEASED.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+
+		public boolean isReleased() {
+			return SLOTS.get(slot) != this;
+		}
+
+		private boolean free() {
+			return SLOTS.compareAndSet(slot, this, null);
+		}
+	}
+}
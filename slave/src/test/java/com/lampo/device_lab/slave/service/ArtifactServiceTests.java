@@ -0,0 +1,178 @@
+package com.lampo.device_lab.slave.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+class ArtifactServiceTests {
+
+	private static final String CONTENT = "0123456789";
+
+	private final ArtifactService service = new ArtifactService();
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void parsesSingleRanges() {
+		assertArrayEquals(new long[] { 2, 5 }, ArtifactService.parseRange("bytes=2-5", 10));
+		assertArrayEquals(new long[] { 2, 9 }, ArtifactService.parseRange("bytes=2-", 10));
+		assertArrayEquals(new long[] { 7, 9 }, ArtifactService.parseRange("bytes=-3", 10));
+		assertArrayEquals(new long[] { 0, 9 }, ArtifactService.parseRange("bytes=-30", 10));
+		assertArrayEquals(new long[] { 8, 9 }, ArtifactService.parseRange("bytes=8-20", 10));
+		assertArrayEquals(new long[] { 3, 9 }, ArtifactService.parseRange("bytes=3-99999999999999999999", 10));
+	}
+
+	@Test
+	void servesWholeFileForMissingOrUnsupportedRanges() {
+		assertNull(ArtifactService.parseRange(null, 10));
+		assertNull(ArtifactService.parseRange("bytes=-", 10));
+		assertNull(ArtifactService.parseRange("bytes=0-1,4-5", 10));
+		assertNull(ArtifactService.parseRange("items=0-1", 10));
+	}
+
+	@Test
+	void rejectsUnsatisfiableRanges() {
+		assertSame(ArtifactService.UNSATISFIABLE, ArtifactService.parseRange("bytes=10-", 10));
+		assertSame(ArtifactService.UNSATISFIABLE, ArtifactService.parseRange("bytes=5-2", 10));
+		assertSame(ArtifactService.UNSATISFIABLE, ArtifactService.parseRange("bytes=-0", 10));
+		assertSame(ArtifactService.UNSATISFIABLE, ArtifactService.parseRange("bytes=99999999999999999999-", 10));
+	}
+
+	@Test
+	void streamsWholeFile() throws IOException {
+		MockHttpServletResponse response = stream(new MockHttpServletRequest("GET", "/"));
+		assertEquals(200, response.getStatus());
+		assertEquals(CONTENT, response.getContentAsString());
+		assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+		assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE));
+	}
+
+	@Test
+	void streamsSuffixRange() throws IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=-4");
+		MockHttpServletResponse response = stream(request);
+		assertEquals(206, response.getStatus());
+		assertEquals("6789", response.getContentAsString());
+		assertEquals("bytes 6-9/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+		assertEquals(4, response.getContentLengthLong());
+	}
+
+	@Test
+	void streamsOpenEndedRange() throws IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=3-");
+		MockHttpServletResponse response = stream(request);
+		assertEquals(206, response.getStatus());
+		assertEquals("3456789", response.getContentAsString());
+		assertEquals("bytes 3-9/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+	}
+
+	@Test
+	void answersUnsatisfiableRange() throws IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=99999999999999999999-");
+		MockHttpServletResponse response = stream(request);
+		assertEquals(416, response.getStatus());
+		assertEquals("bytes */10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+	}
+
+	@Test
+	void ignoresRangeForStaleIfRange() throws IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=3-");
+		request.addHeader(HttpHeaders.IF_RANGE, "\"10-0\"");
+		MockHttpServletResponse response = stream(request);
+		assertEquals(200, response.getStatus());
+		assertEquals(CONTENT, response.getContentAsString());
+	}
+
+	@Test
+	void honoursRangeForCurrentIfRange() throws IOException {
+		String etag = stream(new MockHttpServletRequest("GET", "/")).getHeader(HttpHeaders.ETAG);
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=3-4");
+		request.addHeader(HttpHeaders.IF_RANGE, etag);
+		MockHttpServletResponse response = stream(request);
+		assertEquals(206, response.getStatus());
+		assertEquals("34", response.getContentAsString());
+	}
+
+	@Test
+	void rejectsRequestIdOutsideLogDirectory() throws IOException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		service.stream("logs", "..", new MockHttpServletRequest("GET", "/"), response);
+		assertEquals(404, response.getStatus());
+	}
+
+	private MockHttpServletResponse stream(MockHttpServletRequest request) throws IOException {
+		Path file = directory.resolve("request.log");
+		if (!Files.exists(file)) {
+			Files.write(file, CONTENT.getBytes(StandardCharsets.UTF_8));
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		service.stream(file, "text/plain", request, response);
+		return response;
+	}
+}
@@ -0,0 +1,124 @@
+package com.lampo.device_lab.slave.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ADBClientTests {
+
+	private ServerSocket server;
+	private Thread thread;
+	private ADBClient client;
+
+	@BeforeEach
+	void start() throws IOException {
+		server = new ServerSocket(0);
+		thread = new Thread(this::serve, "fake-adb-server");
+		thread.setDaemon(true);
+		thread.start();
+		client = new ADBClient("127.0.0.1", server.getLocalPort());
+	}
+
+	@AfterEach
+	void stop() throws IOException {
+		server.close();
+	}
+
+	@Test
+	void listsDevices() throws IOException {
+		Map<String, String> devices = client.devices();
+		assertEquals(2, devices.size());
+		assertEquals("device", devices.get("emulator-5554"));
+		assertEquals("unauthorized", devices.get("R58M123"));
+	}
+
+	@Test
+	void runsShellCommandOnDevice() throws IOException {
+		assertEquals("[ro.product.model]: [Pixel 4]\n", client.shell("emulator-5554", "getprop ro.product.model"));
+	}
+
+	@Test
+	void pullsFileOverSync() throws IOException {
+		assertArrayEquals("MemTotal:        3809280 kB\n".getBytes(StandardCharsets.UTF_8),
+				client.pull("emulator-5554", "/proc/meminfo"));
+	}
+
+	@Test
+	void failsForUnknownDevice() {
+		assertThrows(IOException.class, () -> client.shell("unknown", "getprop"));
+	}
+
+	/* a minimal adb server that answers the services used by the client */
+	private void serve() {
+		while (!server.isClosed()) {
+			try (Socket socket = server.accept()) {
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				OutputStream out = socket.getOutputStream();
+				String service = read(in);
+				if ("host:devices".equals(service)) {
+					okay(out);
+					message(out, "emulator-5554\tdevice\nR58M123\tunauthorized\n");
+					continue;
+				}
+				if (!"host:transport:emulator-5554".equals(service)) {
+					out.write("FAIL".getBytes(StandardCharsets.US_ASCII));
+					message(out, "device 'unknown' not found");
+					continue;
+				}
+				okay(out);
+				service = read(in);
+				okay(out);
+				if ("shell:getprop ro.product.model".equals(service)) {
+					out.write("[ro.product.model]: [Pixel 4]\n".getBytes(StandardCharsets.UTF_8));
+				} else if ("sync:".equals(service)) {
+					byte[] header = new byte[8];
+					in.readFully(header);
+					byte[] path = new byte[ByteBuffer.wrap(header, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt()];
+					in.readFully(path);
+					byte[] data = "MemTotal:        3809280 kB\n".getBytes(StandardCharsets.UTF_8);
+					out.write(chunk("DATA", data.length));
+					out.write(data);
+					out.write(chunk("DONE", 0));
+				}
+				out.flush();
+			} catch (IOException ex) {
+				// server closed
+			}
+		}
+	}
+
+	private static String read(DataInputStream in) throws IOException {
+		byte[] length = new byte[4];
+		in.readFully(length);
+		byte[] service = new byte[Integer.parseInt(new String(length, StandardCharsets.US_ASCII), 16)];
+		in.readFully(service);
+		return new String(service, StandardCharsets.UTF_8);
+	}
+
+	private static void okay(OutputStream out) throws IOException {
+		out.write("OKAY".getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static void message(OutputStream out, String message) throws IOException {
+		out.write(String.format("%04x%s", message.length(), message).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] chunk(String id, int length) {
+		return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).put(id.getBytes(StandardCharsets.US_ASCII))
+				.putInt(length).array();
+	}
+}
@@ -0,0 +1,118 @@
+package com.lampo.device_lab.slave.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.lampo.device_lab.slave.utils.PortAllocator.PortLease;
+
+/**
+ * MIT License <br/>
+ * <br/>
+ * 
+ * Copyright (c) [2022] [PharmEasyEngg] <br/>
+ * <br/>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, prepare derivatives of the work, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following
+ * conditions: <br/>
+ * <br/>
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software. <br/>
+ * <br/>
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. <br/>
+ * <br/>
+ * 
+ * 
+ * This software uses open-source dependencies that are listed under the
+ * licenses - {@link <a href="https://www.eclipse.org/legal/epl-2.0/">Eclipse
+ * Public License v2.0</a>},
+ * {@link <a href="https://www.apache.org/licenses/LICENSE-2.0.html">Apache
+ * License 2.0</a>}, {@link <a href=
+ * "https://www.mongodb.com/licensing/server-side-public-license">Server Side
+ * Public License</a>},
+ * {@link <a href="https://www.mozilla.org/en-US/MPL/2.0/">Mozilla Public
+ * License 2.0</a>} and {@link <a href="https://opensource.org/licenses/MIT">MIT
+ * License</a>}. Please go through the description of the licenses to understand
+ * the usage agreement. <br/>
+ * <br/>
+ * 
+ * By using the license, you agree that you have read, understood and agree to
+ * be bound by, including without any limitation by these terms and that the
+ * entire risk as to the quality and performance of the software is with you.
+ *
+ */
+class PortAllocatorTests {
+
+	private final Deque<PortLease> leases = new ArrayDeque<>();
+
+	@AfterEach
+	void release() {
+		leases.forEach(PortLease::release);
+	}
+
+	@Test
+	void liveLeasesNeverSharePorts() {
+		/* enough acquisitions for the cursor to wrap around the slots several times */
+		for (int i = 0; i < 350; i++) {
+			PortLease lease = PortAllocator.acquire("device-" + i);
+			for (PortLease live : leases) {
+				Set<Integer> shared = new HashSet<>(ports(live));
+				shared.retainAll(ports(lease));
+				assertTrue(shared.isEmpty(), String.format("ports %s of '%s' are also leased to '%s'", shared,
+						lease.getOwner(), live.getOwner()));
+			}
+			leases.addLast(lease);
+			if (leases.size() > 40) {
+				leases.removeFirst().release();
+			}
+		}
+	}
+
+	@Test
+	void leaseIsReleasedWhenProcessExits() {
+		PortLease lease = PortAllocator.acquire("device");
+		leases.add(lease);
+		CompletableFuture<Integer> exit = new CompletableFuture<>();
+		lease.releaseOnExit(exit);
+		assertFalse(lease.isReleased());
+		exit.complete(0);
+		assertTrue(lease.isReleased());
+		assertFalse(lease.release());
+	}
+
+	@Test
+	void blockUsesDistinctPorts() {
+		PortLease lease = PortAllocator.acquire("device");
+		leases.add(lease);
+		assertEquals(6, new HashSet<>(ports(lease)).size());
+	}
+
+	private static List<Integer> ports(PortLease lease) {
+		return Arrays.asList(lease.getPort(), lease.getBootstrapPort(), lease.getChromeDriverPort(),
+				lease.getSystemPort(), lease.getWebkitDebugProxyPort(), lease.getWdaLocalPort());
+	}
+}